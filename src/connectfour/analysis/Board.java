@@ -3,6 +3,7 @@ package connectfour.analysis;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 
 /**
  * Board class contains a representation of the connect four board, all current legal moves, the calculated value of the board, and whose turn it is.
@@ -12,13 +13,21 @@ import java.util.Arrays;
  *
  */
 public class Board implements Serializable{
+	private static final long serialVersionUID = 8632631231772685213L; //value from before the move history was added, so old saved games still load
 	public static final int NUM_COLUMNS = 7;
 	public static final int NUM_ROWS = 6;
+	public static final int EVALUATOR_VERSION = 1; //change whenever evaluateScore changes, so results saved from the old evaluator are thrown away
+	private static final long BOTTOM_MASK = 0b0000001_0000001_0000001_0000001_0000001_0000001_0000001L; //lowest square of each column
+	private static final int MOVES_PER_LONG = 21;
+	private static final long[] WINDOWS = listWindows();
 	private byte[][] board; //row, column
 	private byte[] columnCount;
 	private boolean isRedTurn; //colors are red and yellow, red goes first
 	private boolean legalColumns[]; //keeps track of what columns it is legal to make a move on
 	private double value;
+	private long earlyMoves;   //columns of the first 21 moves, 3 bits each
+	private long lateMoves;    //columns of the rest
+	private byte historyLength;
 	
 	/**
 	 * Default constructor creates an empty board with red going first.
@@ -51,6 +60,17 @@ public class Board implements Serializable{
 		board[columnCount[moveColumn]][moveColumn] = (byte)(oldBoard.isRedTurn? 1:-1);
 		columnCount[moveColumn]++;
 		
+		this.earlyMoves    = oldBoard.earlyMoves;
+		this.lateMoves     = oldBoard.lateMoves;
+		this.historyLength = oldBoard.historyLength;
+		if(historyLength == oldBoard.getNumOfMoves()){ //only extend a complete history
+			if(historyLength < MOVES_PER_LONG){
+				earlyMoves |= (long)moveColumn << (3 * historyLength);
+			} else {
+				lateMoves  |= (long)moveColumn << (3 * (historyLength - MOVES_PER_LONG));
+			}
+			++historyLength;
+		}
 		
 		legalColumns = generateLegalColumns();
 		value = this.evaluateScore();
@@ -72,10 +92,32 @@ public class Board implements Serializable{
 		this.isRedTurn    = oldBoard.isRedTurn;
 		this.legalColumns = generateLegalColumns();
 		this.value        = this.evaluateScore();
+		this.earlyMoves    = oldBoard.earlyMoves;
+		this.lateMoves     = oldBoard.lateMoves;
+		this.historyLength = oldBoard.historyLength;
 	}
 	
 
 	
+	/**
+	 * Creates a board by playing a sequence of moves from the empty board.
+	 * 
+	 * @param moves Columns of the moves to play in order, as digits 0-6, for example "3342".
+	 * @return The board after all the moves have been made.
+	 * @throws IllegalArgumentException if a move is not a column or its column is full.
+	 */
+	public static Board fromMoves(String moves){
+		Board board = new Board();
+		for(int i = 0; i < moves.length(); ++i){
+			int column = moves.charAt(i) - '0';
+			if(column < 0 || column >= NUM_COLUMNS || !board.getLegalColumns()[column]){
+				throw new IllegalArgumentException("Illegal move '" + moves.charAt(i) + "' at position " + i + " of " + moves);
+			}
+			board = new Board(board, column);
+		}
+		return board;
+	}
+	
 	/**
 	 * Generates all the columns upon which a legal move can be made
 	 * 
@@ -91,33 +133,240 @@ public class Board implements Serializable{
 		return temp;
 	}
 	
+	/**
+	 * Generates a number that identifies this position, for use as a hash table key.  Each column takes 7 bits, one per row plus one spare, holding the
+	 * pieces of the player to move added to a mask of all occupied squares, which leaves every position with its own key.
+	 *
+	 * @return Key of the position, never 0
+	 */
+	public long getPositionKey(){
+		long position = 0;
+		long mask     = 0;
+		byte toMove   = (byte)(isRedTurn? 1:-1);
+
+		for(int c = 0; c < NUM_COLUMNS; ++c){
+			for(int r = 0; r < columnCount[c]; ++r){
+				long bit = 1L << (c * (NUM_ROWS + 1) + r);
+				mask |= bit;
+				if(board[r][c] == toMove){
+					position |= bit;
+				}
+			}
+		}
+		return position + mask + BOTTOM_MASK;
+	}
+
+	/**
+	 * Lists the moves that led to this position.  Boards made by playing moves from the empty board remember them.  For any other board, such as one
+	 * rebuilt from its key or loaded from an old saved game, an order of moves that reaches the same position is worked out instead.
+	 *
+	 * @return Columns of the moves in order, or null if no legal game reaches this position.
+	 */
+	public byte[] getMoveHistory(){
+		int moveCount = getNumOfMoves();
+		byte[] moves  = new byte[moveCount];
+		if(historyLength == moveCount){
+			for(int i = 0; i < moveCount; ++i){
+				long packed = i < MOVES_PER_LONG? earlyMoves >>> (3 * i) : lateMoves >>> (3 * (i - MOVES_PER_LONG));
+				moves[i] = (byte)(packed & 0b111);
+			}
+			return moves;
+		}
+		return unplay(new Board(this), moveCount, moves, new HashSet<Long>())? moves : null;
+	}
+
+	/**
+	 * Takes pieces back off the board, last mover first, until it is empty, backing up whenever that leaves a position where the game was already won.
+	 *
+	 * @param scratch Board to take the pieces off, put back as it was on failure.
+	 * @param moveCount Number of pieces on the scratch board.
+	 * @param moves Filled in with the moves found.
+	 * @param deadEnds Keys of positions already known not to be reachable.
+	 * @return True if a legal game reaches the scratch board.
+	 */
+	private static boolean unplay(Board scratch, int moveCount, byte[] moves, HashSet<Long> deadEnds){
+		if(moveCount == 0){
+			return true;
+		}
+		byte lastMover = (byte)((moveCount - 1) % 2 == 0? 1:-1); //red makes the even numbered moves
+		for(int c = 0; c < NUM_COLUMNS; ++c){
+			int top = scratch.columnCount[c] - 1;
+			if(top < 0 || scratch.board[top][c] != lastMover) continue;
+
+			scratch.board[top][c] = 0;
+			scratch.columnCount[c]--;
+			boolean reachable = moveCount == 1 || Math.abs(scratch.evaluateScore()) < 1_000;
+			if(reachable && deadEnds.add(scratch.getPositionKey()) && unplay(scratch, moveCount - 1, moves, deadEnds)){
+				moves[moveCount - 1] = (byte)c;
+				scratch.board[top][c] = lastMover;
+				scratch.columnCount[c]++;
+				return true;
+			}
+			scratch.board[top][c] = lastMover;
+			scratch.columnCount[c]++;
+		}
+		return false;
+	}
+
+	/**
+	 * Rebuilds a board from its {@link #getPositionKey()}.  The key doesn't say whose turn it is, so red is taken to be on move after an even number of moves.
+	 *
+	 * @param key Key of the position.
+	 * @return The board with that key.
+	 * @throws IllegalArgumentException if a column of the key is empty or overfull.
+	 */
+	public static Board fromPositionKey(long key){
+		Board board = new Board();
+		int[] heights = new int[NUM_COLUMNS];
+		int moveCount = 0;
+		for(int c = 0; c < NUM_COLUMNS; ++c){
+			int column = (int)(key >>> (c * (NUM_ROWS + 1))) & 0x7F;
+			if(column == 0){
+				throw new IllegalArgumentException("Not a position key: " + Long.toHexString(key));
+			}
+			heights[c] = 31 - Integer.numberOfLeadingZeros(column); //the top set bit sits just above the column's pieces
+			moveCount += heights[c];
+		}
+
+		board.isRedTurn = moveCount % 2 == 0;
+		byte toMove = (byte)(board.isRedTurn? 1:-1);
+		for(int c = 0; c < NUM_COLUMNS; ++c){
+			for(int r = 0; r < heights[c]; ++r){
+				boolean mine = (key & (1L << (c * (NUM_ROWS + 1) + r))) != 0;
+				board.board[r][c] = mine? toMove : (byte)-toMove;
+			}
+			board.columnCount[c] = (byte)heights[c];
+		}
+		board.legalColumns = board.generateLegalColumns();
+		board.value        = board.evaluateScore();
+		return board;
+	}
+
 	/**
      * Calculates a value for the board which represents which side has how much of an advantage.  Positive scores favor white, negative scores favor black, and the higher the absolute value of the score, the greater the advantage.
      * 
+     * The score of a position is kept in the {@link EvaluationCache}, if there is one, so a position seen again isn't scored again.
+     * 
      * @return Calculated value of the board
      */
 	public double evaluateScore(){
+		EvaluationCache cache = EvaluationCache.getActive();
+		if(cache == null){
+			return computeScore();
+		}
+		long key = getEvaluationKey();
+		double score = cache.probe(key);
+		if(Double.isNaN(score)){
+			score = computeScore();
+			cache.store(key, score);
+		}
+		return score;
+	}
+	
+	/**
+	 * Generates a key for the evaluation cache.  Unlike {@link #getPositionKey()} it holds red's pieces whoever is to move, so the side to move is
+	 * added in the top bit, since the score can depend on it.
+	 * 
+	 * @return Key of the position and side to move, never 0
+	 */
+	private long getEvaluationKey(){
+		long red  = 0;
+		long mask = 0;
+		for(int c = 0; c < NUM_COLUMNS; ++c){
+			for(int r = 0; r < columnCount[c]; ++r){
+				long bit = 1L << (c * (NUM_ROWS + 1) + r);
+				mask |= bit;
+				if(board[r][c] > 0){
+					red |= bit;
+				}
+			}
+		}
+		return (red + mask + BOTTOM_MASK) | (isRedTurn? 1L << 63 : 0);
+	}
+	
+	private double computeScore(){
 		double score = 0;
-
-		double[][] squareModifier = {
-				{0.917, 1.000, 1.050, 1.107, 1.050, 1.000, 0.917 },
-				{1.000, 1.083, 1.125, 1.150, 1.125, 1.083, 1.000},
-				{1.050, 1.125, 1.159, 1.173, 1.159, 1.125, 1.050},
-				{1.050, 1.125, 1.159, 1.173, 1.159, 1.125, 1.050},
-				{1.000, 1.083, 1.125, 1.150, 1.125, 1.083, 1.000},
-				{0.917, 1.000, 1.050, 1.107, 1.050, 1.000, 0.917}
-		}; //weighted chance of an individual square being involved in the winning group of 4, idea modified from http://programmers.stackexchange.com/questions/263514/why-does-this-evaluation-function-work-in-a-connect-four-game-in-java
+		EvaluationWeights weights = EvaluationWeights.getActive();
 		
 		for(int c = 0; c < NUM_COLUMNS; ++c){
 			for(int r = 0; r < NUM_ROWS; ++r){
 				if(board[r][c] != 0){
-					score += lookForWin(r,c)? 10_000 * board[r][c] : board[r][c] * squareModifier[r][c];
+					score += lookForWin(r,c)? weights.getWinBonus() * board[r][c] : board[r][c] * weights.getSquare(r, c);
 				}
 			}
 		}
+		if(weights.usesWindows()){
+			int[] windows = countWindows();
+			score += weights.getThreeWeight() * windows[3] + weights.getTwoWeight() * windows[2];
+		}
+		if(weights.getTempo() != 0){
+			score += isRedTurn? weights.getTempo() : -weights.getTempo();
+		}
 		return score;
 	}
 	
+	/**
+	 * @return Version of the evaluation boards are scored with: {@link #EVALUATOR_VERSION} with the default weights, or a number made from the
+	 * {@link EvaluationWeights} loaded in their place.
+	 */
+	public static int getEvaluatorVersion(){
+		return EvaluationWeights.getActive().getVersion();
+	}
+	
+	/**
+	 * Counts the rows of four squares that one side could still complete, by how many of that side's pieces are in them.
+	 * 
+	 * @return Red's rows less yellow's rows, indexed by the number of pieces in the row.  Index 0 is always 0.
+	 */
+	public int[] countWindows(){
+		long red    = 0;
+		long yellow = 0;
+		for(int c = 0; c < NUM_COLUMNS; ++c){
+			for(int r = 0; r < columnCount[c]; ++r){
+				long bit = 1L << (c * (NUM_ROWS + 1) + r);
+				if(board[r][c] > 0){
+					red |= bit;
+				} else {
+					yellow |= bit;
+				}
+			}
+		}
+		
+		int[] counts = new int[5];
+		for(long window : WINDOWS){
+			if((yellow & window) == 0){
+				counts[Long.bitCount(red & window)] += 1;
+			} else if((red & window) == 0){
+				counts[Long.bitCount(yellow & window)] -= 1;
+			}
+		}
+		counts[0] = 0;
+		return counts;
+	}
+	
+	/**
+	 * Lists every row of four squares, horizontal, vertical or diagonal, as a mask with a bit for each square laid out like {@link #getPositionKey()}.
+	 */
+	private static long[] listWindows(){
+		int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}}; //row step, column step
+		long[] windows = new long[69];
+		int count = 0;
+		for(int[] direction : directions){
+			for(int r = 0; r < NUM_ROWS; ++r){
+				for(int c = 0; c < NUM_COLUMNS; ++c){
+					int lastRow = r + 3 * direction[0];
+					int lastColumn = c + 3 * direction[1];
+					if(lastRow >= NUM_ROWS || lastColumn < 0 || lastColumn >= NUM_COLUMNS) continue;
+					for(int i = 0; i < 4; ++i){
+						windows[count] |= 1L << ((c + i * direction[1]) * (NUM_ROWS + 1) + r + i * direction[0]);
+					}
+					++count;
+				}
+			}
+		}
+		return Arrays.copyOf(windows, count);
+	}
+	
 	public boolean lookForWin(int r, int c){
 		boolean isWin = false;
 		//horizontal
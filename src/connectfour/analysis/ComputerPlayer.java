@@ -1,6 +1,11 @@
 package connectfour.analysis;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A set of algorithms for playing Connect Four.
@@ -9,7 +14,31 @@ import java.util.ArrayList;
  *
  */
 public class ComputerPlayer{
+	/**
+	 * How the search window is chosen for each depth of an iterative deepening search.
+	 */
+	public enum SearchMode {
+		FULL_WINDOW, //search every depth with unbounded alpha and beta
+		ASPIRATION,  //search a narrow window around the previous score, widening it when the score falls outside
+		MTDF         //converge on the score with a series of null window searches
+	}
+	
+	private static final double ASPIRATION_WINDOW = 0.5;
+	private static final double ASPIRATION_GROWTH = 4;
+	private static final double MTDF_STEP         = 0.001;
+	
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "search-timer");
+		thread.setDaemon(true);
+		return thread;
+	}); //stops timed searches that reach their hard limit
+	
 	private boolean isRed;
+	private SearchMode searchMode = SearchMode.FULL_WINDOW;
+	private TranspositionTable transpositionTable;
+	private volatile boolean stopRequested;
+	private long nodes;
+	private long nodeLimit = Long.MAX_VALUE;
 	
 	public ComputerPlayer(boolean isRed){
 		this.isRed = isRed;
@@ -94,20 +123,347 @@ public class ComputerPlayer{
 	 * @return The selected move.
 	 */
 	public int getEvenBetterMove(Board board, int ply){
+		stopRequested = false;
+		nodes = 0;
 		Node root = new Node(board);
 		root = populateAlphaBetaTree(root, ply, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		return selectBestChild(root).getMoveData();
+	}
+	
+	/**
+	 * Searches one ply deeper at a time up to the given depth, reporting the results of each depth to the listener as soon as it is finished.
+	 * If {@link #stop()} is called the unfinished depth is thrown away and the best move of the last finished depth is returned.
+	 * 
+	 * @param board State of the board to analyze.
+	 * @param ply Deepest depth to analyze to.
+	 * @param listener Receives the results of each finished depth, may be null.
+	 * @return The selected move.
+	 */
+	public int getEvenBetterMove(Board board, int ply, SearchListener listener){
+		stopRequested = false;
+		nodes = 0;
+		long startTime = System.currentTimeMillis();
+		int bestMove = -1;
+		double[] depthScores = new double[ply + 1];
+		
+		for(int depth = 1; depth <= ply; ++depth){
+			Node root;
+			if(depth == 1 || searchMode == SearchMode.FULL_WINDOW){
+				root = populateAlphaBetaTree(new Node(board), depth, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			} else {
+				double guess = depthScores[depth > 2? depth - 2 : depth - 1]; //scores swing between odd and even depths, so guess from the same parity
+				root = searchMode == SearchMode.ASPIRATION? searchAspirationWindow(board, depth, guess) : searchMtdf(board, depth, guess);
+			}
+			if(stopRequested && bestMove != -1){
+				break; //depth was not finished, results can't be trusted
+			}
+			
+			Node best = selectBestChild(root);
+			bestMove  = best.getMoveData();
+			depthScores[depth] = best.getNodeValue();
+			if(listener != null){
+				int[] continuation = principalVariation(best, depth - 1);
+				int[] line = new int[continuation.length + 1];
+				line[0] = bestMove;
+				System.arraycopy(continuation, 0, line, 1, continuation.length);
+				listener.depthCompleted(new SearchInfo(depth, bestMove, best.getNodeValue(), line, nodes, System.currentTimeMillis() - startTime));
+			}
+			if(stopRequested || Math.abs(best.getNodeValue()) > 1_000){
+				break; //nothing more to learn from searching deeper
+			}
+		}
+		
+		return bestMove;
+	}
+	
+	/**
+	 * Searches deeper one ply at a time for as long as a clock allows.  The {@link TimeManager} decides after each depth whether another one is worth
+	 * starting, and once the first depth is done a timer stops the search at the hard limit, throwing away the depth in progress.
+	 * 
+	 * @param board State of the board to analyze.
+	 * @param remainingMillis Time left on this player's clock.
+	 * @param incrementMillis Time added to this player's clock after each move.
+	 * @param listener Receives the results of each finished depth, may be null.
+	 * @return The selected move.
+	 */
+	public int getTimedMove(Board board, long remainingMillis, long incrementMillis, SearchListener listener){
+		TimeManager time = new TimeManager(board, remainingMillis, incrementMillis);
+		ScheduledFuture<?>[] hardStop = new ScheduledFuture<?>[1];
+		int maxDepth = Board.NUM_ROWS * Board.NUM_COLUMNS - board.getNumOfMoves();
+		
+		int move = getEvenBetterMove(board, maxDepth, (info) -> {
+			if(listener != null){
+				listener.depthCompleted(info);
+			}
+			if(time.depthCompleted(info)){
+				stop();
+			} else if(hardStop[0] == null){ //started here rather than before the search, which clears any earlier stop
+				hardStop[0] = TIMER.schedule(this::stop, Math.max(0, time.getHardLimit() - info.getElapsedMillis()), TimeUnit.MILLISECONDS);
+			}
+		});
+		if(hardStop[0] != null){
+			hardStop[0].cancel(false);
+		}
+		return move;
+	}
+	
+	/**
+	 * Searches deeper one ply at a time until a fixed time for the move is used up, then plays the best move of the last finished depth.  The first
+	 * depth is always finished, so there is a move to play however short the time.
+	 * 
+	 * @param board State of the board to analyze.
+	 * @param ply Deepest to search.
+	 * @param moveMillis Time to spend on the move, counted from the start of the search.
+	 * @param listener Receives the results of each finished depth, may be null.
+	 * @return The selected move.
+	 */
+	public int getMoveInTime(Board board, int ply, long moveMillis, SearchListener listener){
+		ScheduledFuture<?>[] timeout = new ScheduledFuture<?>[1];
+		int move = getEvenBetterMove(board, ply, (info) -> {
+			if(listener != null){
+				listener.depthCompleted(info);
+			}
+			if(timeout[0] == null){ //the search clears any earlier stop, so the timer can only be started once it is under way
+				timeout[0] = TIMER.schedule(this::stop, Math.max(0, moveMillis - info.getElapsedMillis()), TimeUnit.MILLISECONDS);
+			}
+		});
+		if(timeout[0] != null){
+			timeout[0].cancel(false);
+		}
+		return move;
+	}
+	
+	/**
+	 * Searches a narrow window around the expected score, widening whichever side the score falls outside of until the score lands inside the window.
+	 * 
+	 * @param board State of the board to analyze.
+	 * @param ply Depth to analyze to.
+	 * @param guess Expected score, usually from an earlier depth.
+	 * @return Root of the searched tree.
+	 */
+	private Node searchAspirationWindow(Board board, int ply, double guess){
+		double lowDelta  = ASPIRATION_WINDOW;
+		double highDelta = ASPIRATION_WINDOW;
+		
+		while(true){
+			double alpha = lowDelta  > 1_000? Integer.MIN_VALUE : guess - lowDelta;
+			double beta  = highDelta > 1_000? Integer.MAX_VALUE : guess + highDelta;
+			Node root    = populateAlphaBetaTree(new Node(board), ply, alpha, beta);
+			double value = root.getNodeValue();
+			
+			if(value <= alpha && alpha > Integer.MIN_VALUE){ //fail low, real score may be lower still
+				lowDelta *= ASPIRATION_GROWTH;
+			} else if(value >= beta && beta < Integer.MAX_VALUE){ //fail high
+				highDelta *= ASPIRATION_GROWTH;
+			} else {
+				return root;
+			}
+			if(stopRequested){
+				return root;
+			}
+		}
+	}
+	
+	/**
+	 * Finds the score with a series of null window searches, each one proving the score is above or below a test value, until the bounds meet.
+	 * 
+	 * @param board State of the board to analyze.
+	 * @param ply Depth to analyze to.
+	 * @param guess Expected score, usually from an earlier depth.
+	 * @return Root of the last tree that proved the best move.
+	 */
+	private Node searchMtdf(Board board, int ply, double guess){
+		double lower = Double.NEGATIVE_INFINITY;
+		double upper = Double.POSITIVE_INFINITY;
+		double value = guess;
+		Node proven  = null;
+		Node root    = null;
+		
+		while(upper - lower > MTDF_STEP && !stopRequested){
+			double beta = value == lower? value + MTDF_STEP : value;
+			root        = populateAlphaBetaTree(new Node(board), ply, beta - MTDF_STEP, beta);
+			value       = root.getNodeValue();
+			
+			if(value < beta){
+				upper = value;
+				if(!board.isRedTurn()) proven = root; //minimizing root found a move at least this good
+			} else {
+				lower = value;
+				if(board.isRedTurn()) proven = root; //maximizing root found a move at least this good
+			}
+		}
+		
+		if(proven == null){
+			proven = root != null? root : populateAlphaBetaTree(new Node(board), ply, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+		return proven;
+	}
+	
+	/**
+	 * Scores every legal move of the given board with a single search.  Each move at the root is searched with a full window, so every score is exact rather than just a bound.
+	 * The searches of the moves share one transposition table, the player's own or a temporary one if it has none, since positions below one move
+	 * are mostly reached again below the others.  A temporary table is only as big as the depth needs, so a shallow call stays cheap.
+	 *
+	 * @param board State of the board to analyze.
+	 * @param ply Depth to analyze to.
+	 * @return Score of the move in each column, indexed by column.  Columns without a legal move are set to NaN.
+	 */
+	public double[] getMoveScores(Board board, int ply){
+		stopRequested = false;
+		nodes = 0;
+		double[] scores = new double[Board.NUM_COLUMNS];
+		Arrays.fill(scores, Double.NaN);
+
+		TranspositionTable ownTable = transpositionTable;
+		if(ownTable == null){
+			transpositionTable = TranspositionTable.forDepth(ply);
+		}
+		try{
+			Node root = new Node(board);
+			++nodes;
+			for(int move : board.generateMoveList()){
+				Node child = new Node(root, move); //not added to the root, so each move's tree can be collected once it is scored
+				scores[move] = populateAlphaBetaTree(child, ply - 1, Integer.MIN_VALUE, Integer.MAX_VALUE).getNodeValue();
+			}
+		} finally {
+			transpositionTable = ownTable;
+		}
+		return scores;
+	}
+
+	/**
+	 * Searches a single position with a full window, for when the caller compares the scores of several positions itself, such as when a search is
+	 * split up between machines.
+	 *
+	 * @param board State of the board to analyze.
+	 * @param ply Depth to analyze to.
+	 * @return Exact score of the position and the line the search expects, which is empty if the game is already over or ply is 0.
+	 */
+	public SearchInfo searchPosition(Board board, int ply){
+		stopRequested = false;
+		nodes = 0;
+		long startTime = System.currentTimeMillis();
+		Node root  = populateAlphaBetaTree(new Node(board), ply, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		int[] line = principalVariation(root, ply);
+		return new SearchInfo(ply, line.length > 0? line[0] : -1, root.getNodeValue(), line, nodes, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Finds the line both sides are expected to play from a searched node.  Where the tree stops short of the depth searched, because a position was
+	 * answered from the transposition table without being searched again, the line goes on with the best moves stored in the table.
+	 *
+	 * @param node Node that was searched.
+	 * @param ply Depth the node was searched to, which the line is never longer than.
+	 * @return Sequence of moves starting from the node.
+	 */
+	private int[] principalVariation(Node node, int ply){
+		int[] line = node.getPrincipalVariation();
+		if(transpositionTable == null || line.length >= ply){
+			return line;
+		}
+
+		Board board = node.getBoardData();
+		for(int move : line){
+			board = new Board(board, move);
+		}
+		ArrayList<Integer> continuation = new ArrayList<Integer>();
+		while(line.length + continuation.size() < ply && Math.abs(board.getValue()) <= 1_000){
+			long entry = transpositionTable.probe(board.getPositionKey());
+			if(entry == TranspositionTable.NO_ENTRY) break;
+			int move = TranspositionTable.unpackMove(entry);
+			if(move == TranspositionTable.NO_MOVE || !board.generateMoveList().contains(move)) break; //nothing stored, or a move from another position in the slot
+			continuation.add(move);
+			board = new Board(board, move);
+		}
+
+		int[] extended = Arrays.copyOf(line, line.length + continuation.size());
+		for(int i = 0; i < continuation.size(); ++i){
+			extended[line.length + i] = continuation.get(i);
+		}
+		return extended;
+	}
+
+	/**
+	 * Picks the best move for this player from a set of move scores.
+	 *
+	 * @param scores Move scores indexed by column, as returned by {@link #getMoveScores(Board, int)}.
+	 * @return The selected move, or -1 if no move is legal.
+	 */
+	public int selectBestMove(double[] scores){
+		int bestMove = -1;
+		for(int c = 0; c < scores.length; ++c){
+			if(Double.isNaN(scores[c])) continue;
+			if(bestMove == -1
+					|| (this.isRed && scores[c] > scores[bestMove])
+					|| (!this.isRed && scores[c] < scores[bestMove])){
+				bestMove = c;
+			}
+		}
+		return bestMove;
+	}
+
+	/**
+	 * Asks a running search to finish as soon as possible.  Safe to call from any thread.
+	 */
+	public void stop(){
+		stopRequested = true;
+	}
+	
+	public SearchMode getSearchMode(){
+		return searchMode;
+	}
+	
+	public void setSearchMode(SearchMode searchMode){
+		this.searchMode = searchMode;
+	}
+	
+	public TranspositionTable getTranspositionTable(){
+		return transpositionTable;
+	}
+	
+	/**
+	 * Sets the table used to remember positions that have already been searched.  The same table may be kept across moves to reuse earlier work.
+	 * 
+	 * @param transpositionTable Table to use, or null to search without one.
+	 */
+	public void setTranspositionTable(TranspositionTable transpositionTable){
+		this.transpositionTable = transpositionTable;
+	}
+	
+	/**
+	 * Limits how many positions a search may visit.  A search that reaches the limit stops as if {@link #stop()} had been called.
+	 * 
+	 * @param nodeLimit Most positions to visit in one search, or Long.MAX_VALUE for no limit.
+	 */
+	public void setNodeLimit(long nodeLimit){
+		this.nodeLimit = nodeLimit;
+	}
+	
+	/**
+	 * @return Number of positions visited by the most recent search.
+	 */
+	public long getNodes(){
+		return nodes;
+	}
+	
+	/**
+	 * Picks the child of the root that is best for this player.
+	 * 
+	 * @param root Searched root of the tree.
+	 * @return The best child.
+	 */
+	private Node selectBestChild(Node root){
 		Node temp = root.getChild(0);
 		for(Node n:root.getChildren()){ //traverse the tree
-			double nVal = n.getMinimaxValue();
-			double tempVal = temp.getMinimaxValue();
+			double nVal = n.getNodeValue();
+			double tempVal = temp.getNodeValue();
 			if(this.isRed && (nVal > tempVal)){ 
 				temp = n;
 			} else if (!this.isRed && (nVal < tempVal)){ 
 				temp = n;
 			}
 		}
-		
-		return temp.getMoveData();
+		return temp;
 	}
 
 	/**
@@ -143,32 +499,68 @@ public class ComputerPlayer{
 	private Node populateAlphaBetaTree(Node root, int ply, double alpha, double beta){
 		Node temp;
 		Board board = root.getBoardData();
-		if(Math.abs(board.getValue()) > 1_000){
-			root.setNodeValue(board.evaluateScore()); //set leaf score
+		double boardValue = board.getValue();
+		if(++nodes >= nodeLimit){
+			stopRequested = true;
+		}
+		if(Math.abs(boardValue) > 1_000 || (stopRequested && root.getParent() != null)){
+			root.setNodeValue(boardValue); //set leaf score
 		} else if(ply > 0){//if tree isn't at a leaf
+			ArrayList<Integer> moves = board.generateMoveList();
+			long key = 0;
+			if(transpositionTable != null){
+				key = board.getPositionKey();
+				long entry = transpositionTable.probe(key);
+				if(entry != TranspositionTable.NO_ENTRY){
+					if(root.getParent() != null && TranspositionTable.unpackDepth(entry) >= ply){
+						double score = TranspositionTable.unpackScore(entry);
+						int bound    = TranspositionTable.unpackBound(entry);
+						if(bound == TranspositionTable.EXACT
+								|| (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+								|| (bound == TranspositionTable.UPPER_BOUND && score <= alpha)){
+							root.setNodeValue(score); //already searched deep enough elsewhere in the tree
+							return root;
+						}
+					}
+					Integer hashMove = TranspositionTable.unpackMove(entry);
+					if(moves.remove(hashMove)){
+						moves.add(0, hashMove); //search the previous best move first for earlier cutoffs
+					}
+				}
+			}
+			
+			double alphaStart = alpha;
+			double betaStart  = beta;
+			int bestMove      = TranspositionTable.NO_MOVE;
 			--ply;
 			
-			ArrayList<Integer> moves = board.generateMoveList();
+			double best = board.isRedTurn()? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
 			for(int move: moves){
 				temp = new Node(root, move);
 				root.addChild(temp);
 				
+				double value = populateAlphaBetaTree(temp, ply, alpha, beta).getNodeValue();
 				if(board.isRedTurn()){//if the maximizing player
-					alpha = Math.max(alpha, populateAlphaBetaTree(temp, ply, alpha, beta).getMinimaxValue()); //alpha is the value of the maximizing player's best move
-					if(alpha > beta){
-						break; //branch won't happen
-					}
+					if(value > best) bestMove = move;
+					best  = Math.max(best, value);
+					alpha = Math.max(alpha, value); //alpha is the value of the maximizing player's best move
 				}else{// if the minimizing player
-					if(!board.isRedTurn()){//if white, the maximizing player
-						beta = Math.min(beta, populateAlphaBetaTree(temp, ply, alpha, beta).getMinimaxValue()); //beta is the value of the minimizing player's best move
-						if(alpha > beta){
-							break; //branch won't happen
-						}
-					}
+					if(value < best) bestMove = move;
+					best = Math.min(best, value);
+					beta = Math.min(beta, value); //beta is the value of the minimizing player's best move
+				}
+				if(alpha > beta){
+					break; //branch won't happen
 				}
 			}//for
+			root.setNodeValue(moves.isEmpty()? boardValue : best);
+			
+			if(transpositionTable != null && !moves.isEmpty() && !stopRequested){
+				int bound = best <= alphaStart? TranspositionTable.UPPER_BOUND : best >= betaStart? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+				transpositionTable.store(key, TranspositionTable.pack(best, ply + 1, bound, bestMove));
+			}
 		} else {//if tree is at leaf
-			root.setNodeValue(board.evaluateScore()); //set leaf score
+			root.setNodeValue(boardValue); //set leaf score
 		}
 		return root;
 	}
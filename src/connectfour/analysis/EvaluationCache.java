@@ -0,0 +1,144 @@
+package connectfour.analysis;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the scores {@link Board#evaluateScore()} has worked out, so a position reached again, by another order of moves or by the next depth of
+ * an iterative deepening search, isn't evaluated again.
+ *
+ * The cache is direct mapped: every position has one slot, and a new score simply replaces whatever was there.  Like
+ * {@link SharedTranspositionTable}, each slot holds the score and the position key XORed with the score, so any number of threads can use the cache
+ * without locking: a slot torn by two writes at once no longer gives the probed key back and reads as a miss.  Probing and storing allocate nothing.
+ *
+ * One cache is shared by every board.  It is sized by the connectfour.evalcache.entries system property, 65536 entries (1MB) by default, and
+ * setting it to 0 turns the cache off, as does {@link #setActive(EvaluationCache) setting no cache}.  It is separate from the transposition tables,
+ * which hold search results rather than static scores.
+ *
+ * @author Folz
+ *
+ */
+public final class EvaluationCache {
+	private static volatile EvaluationCache active = fromSystemProperties();
+
+	private final long[] slots; //pairs of (key ^ score bits, score bits)
+	private final int slotMask;
+	private final LongAdder hits;
+	private final LongAdder misses;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity Number of scores to hold, rounded down to a power of two.
+	 */
+	public EvaluationCache(int capacity){
+		int entries = Integer.highestOneBit(Math.max(1, Math.min(capacity, 1 << 28)));
+		slots    = new long[entries << 1];
+		slotMask = entries - 1;
+		hits     = new LongAdder();
+		misses   = new LongAdder();
+	}
+
+	/**
+	 * @return The cache boards use, or null if evaluations aren't cached.
+	 */
+	public static EvaluationCache getActive(){
+		return active;
+	}
+
+	/**
+	 * Changes the cache boards use, such as to compare searches with and without one.
+	 *
+	 * @param cache New cache, or null to stop caching evaluations.
+	 */
+	public static void setActive(EvaluationCache cache){
+		active = cache;
+	}
+
+	/**
+	 * Looks up the score of a position.
+	 *
+	 * @param key Key of the position, which must include whose turn it is.
+	 * @return The score, or NaN if it isn't cached.
+	 */
+	public double probe(long key){
+		int index   = slotIndex(key);
+		long score  = slots[index + 1];
+		long check  = slots[index];
+		if((check ^ score) == key){
+			hits.increment();
+			return Double.longBitsToDouble(score);
+		}
+		misses.increment();
+		return Double.NaN;
+	}
+
+	/**
+	 * Stores the score of a position, replacing whatever was in its slot.
+	 *
+	 * @param key Key of the position, never 0.
+	 * @param score Score of the position.
+	 */
+	public void store(long key, double score){
+		int index = slotIndex(key);
+		long bits = Double.doubleToRawLongBits(score);
+		slots[index + 1] = bits;
+		slots[index]     = key ^ bits;
+	}
+
+	private int slotIndex(long key){
+		return ((int)TranspositionTable.mix(key) & slotMask) << 1;
+	}
+
+	/**
+	 * Removes every score, such as when the evaluation weights change.  The counts of hits and misses are kept.
+	 */
+	public void clear(){
+		for(int i = 0; i < slots.length; ++i){
+			slots[i] = 0;
+		}
+	}
+
+	public int getCapacity(){
+		return slotMask + 1;
+	}
+
+	public long getHits(){
+		return hits.sum();
+	}
+
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	/**
+	 * @return Share of probes that found a score, between 0 and 1.
+	 */
+	public double getHitRate(){
+		long found = hits.sum();
+		long total = found + misses.sum();
+		return total == 0? 0 : (double)found / total;
+	}
+
+	/**
+	 * Sets the counts of hits and misses back to 0.
+	 */
+	public void resetStatistics(){
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * Creates a cache sized by the connectfour.evalcache.entries system property.
+	 *
+	 * @return The cache, or null if the property is 0.
+	 */
+	private static EvaluationCache fromSystemProperties(){
+		int entries = Integer.getInteger("connectfour.evalcache.entries", 1 << 16);
+		return entries > 0? new EvaluationCache(entries) : null;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("%,d entries, %,d hits, %,d misses, %.1f%% hit rate", getCapacity(), getHits(), getMisses(), 100 * getHitRate());
+	}
+}
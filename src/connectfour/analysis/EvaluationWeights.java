@@ -0,0 +1,233 @@
+package connectfour.analysis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The numbers {@link Board#evaluateScore()} weighs a position with: a weight for each square a piece can stand on, a bonus for four in a row,
+ * weights for the rows of four squares one side could still complete, by how many of their pieces are already in them, and the worth of being the
+ * side to move.
+ *
+ * Weights can be saved to and loaded from a parameter file of name=value lines, as written by the evaluation tuner.  The weights boards are scored
+ * with are set with {@link #setActive(EvaluationWeights)}, or by naming a parameter file in the connectfour.eval.weights system property.
+ *
+ * @author Folz
+ *
+ */
+public final class EvaluationWeights {
+	/**
+	 * Weights the game shipped with.
+	 */
+	public static final EvaluationWeights DEFAULT = new EvaluationWeights(new double[][]{
+			{0.917, 1.000, 1.050, 1.107, 1.050, 1.000, 0.917 },
+			{1.000, 1.083, 1.125, 1.150, 1.125, 1.083, 1.000},
+			{1.050, 1.125, 1.159, 1.173, 1.159, 1.125, 1.050},
+			{1.050, 1.125, 1.159, 1.173, 1.159, 1.125, 1.050},
+			{1.000, 1.083, 1.125, 1.150, 1.125, 1.083, 1.000},
+			{0.917, 1.000, 1.050, 1.107, 1.050, 1.000, 0.917}
+	}, 10_000, 0, 0, 0); //weighted chance of an individual square being involved in the winning group of 4, idea modified from http://programmers.stackexchange.com/questions/263514/why-does-this-evaluation-function-work-in-a-connect-four-game-in-java
+
+	private static volatile EvaluationWeights active = fromSystemProperties();
+
+	private final double[][] square; //row, column
+	private final double winBonus;
+	private final double threeWeight;
+	private final double twoWeight;
+	private final double tempo;
+	private final int version;
+
+	/**
+	 * @param square Weight of a piece on each square, indexed by row from the bottom and then column.  A square and its mirror image must weigh the
+	 *               same, since the position cache and the tournament openings take a position and its mirror image to be worth the same.
+	 * @param winBonus Score of four in a row.  Searches take any score above 1000 to be a win, so it must be larger.
+	 * @param threeWeight Weight of a row of four squares holding three of one side's pieces and an empty square.
+	 * @param twoWeight Weight of a row of four squares holding two of one side's pieces and two empty squares.
+	 * @param tempo Worth of being the side to move.
+	 * @throws IllegalArgumentException if the square weights are the wrong size or not symmetric, or the win bonus is too small.
+	 */
+	public EvaluationWeights(double[][] square, double winBonus, double threeWeight, double twoWeight, double tempo){
+		if(square.length != Board.NUM_ROWS){
+			throw new IllegalArgumentException("Expected " + Board.NUM_ROWS + " rows of square weights but got " + square.length);
+		}
+		this.square = new double[Board.NUM_ROWS][];
+		for(int r = 0; r < Board.NUM_ROWS; ++r){
+			if(square[r].length != Board.NUM_COLUMNS){
+				throw new IllegalArgumentException("Expected " + Board.NUM_COLUMNS + " square weights in row " + r + " but got " + square[r].length);
+			}
+			this.square[r] = Arrays.copyOf(square[r], Board.NUM_COLUMNS);
+			for(int c = 0; c < Board.NUM_COLUMNS / 2; ++c){
+				if(Double.compare(square[r][c], square[r][Board.NUM_COLUMNS - 1 - c]) != 0){
+					throw new IllegalArgumentException("Square weights must be symmetric, but row " + r + " has " + square[r][c] + " in column " + c
+							+ " and " + square[r][Board.NUM_COLUMNS - 1 - c] + " in column " + (Board.NUM_COLUMNS - 1 - c));
+				}
+			}
+		}
+		if(!(winBonus > 1_000)){
+			throw new IllegalArgumentException("The win bonus must be above 1000, not " + winBonus);
+		}
+		this.winBonus    = winBonus;
+		this.threeWeight = threeWeight;
+		this.twoWeight   = twoWeight;
+		this.tempo       = tempo;
+
+		int hash = Arrays.deepHashCode(this.square);
+		hash = 31 * hash + Double.hashCode(winBonus);
+		hash = 31 * hash + Double.hashCode(threeWeight);
+		hash = 31 * hash + Double.hashCode(twoWeight);
+		hash = 31 * hash + Double.hashCode(tempo);
+		this.version = DEFAULT == null || equals(DEFAULT)? Board.EVALUATOR_VERSION : (hash & 0x3FFF_FFFF) | 0x4000_0000; //never mistaken for the default's version
+	}
+
+	/**
+	 * @return Weights boards are scored with.
+	 */
+	public static EvaluationWeights getActive(){
+		return active;
+	}
+
+	/**
+	 * Changes the weights boards are scored with, and empties the {@link EvaluationCache} of scores made with the old ones.  Boards already made keep
+	 * the score they were made with, so this should be done before any searching starts.
+	 *
+	 * @param weights New weights.
+	 */
+	public static void setActive(EvaluationWeights weights){
+		active = weights;
+		EvaluationCache cache = EvaluationCache.getActive();
+		if(cache != null){
+			cache.clear();
+		}
+	}
+
+	public double getSquare(int row, int column){
+		return square[row][column];
+	}
+
+	public double getWinBonus(){
+		return winBonus;
+	}
+
+	public double getThreeWeight(){
+		return threeWeight;
+	}
+
+	public double getTwoWeight(){
+		return twoWeight;
+	}
+
+	public double getTempo(){
+		return tempo;
+	}
+
+	/**
+	 * @return True if the rows of four have to be counted to score a board with these weights.
+	 */
+	public boolean usesWindows(){
+		return threeWeight != 0 || twoWeight != 0;
+	}
+
+	/**
+	 * Identifies the weights, for results that are only good for the evaluation they were made with.
+	 *
+	 * @return {@link Board#EVALUATOR_VERSION} for the default weights, and a number made from the weights otherwise.
+	 */
+	public int getVersion(){
+		return version;
+	}
+
+	/**
+	 * Reads weights from a parameter file.  Weights the file leaves out keep their default values.
+	 *
+	 * @param file Parameter file.
+	 * @return The weights.
+	 * @throws IOException if the file can't be read or holds a value that isn't a number.
+	 */
+	public static EvaluationWeights load(Path file) throws IOException{
+		Properties properties = new Properties();
+		try(Reader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)){
+			properties.load(reader);
+		}
+		try{
+			double[][] square = new double[Board.NUM_ROWS][Board.NUM_COLUMNS];
+			for(int r = 0; r < Board.NUM_ROWS; ++r){
+				for(int c = 0; c < Board.NUM_COLUMNS; ++c){
+					square[r][c] = getDouble(properties, "square." + r + "." + c, DEFAULT.square[r][c]);
+				}
+			}
+			return new EvaluationWeights(square, getDouble(properties, "win", DEFAULT.winBonus),
+					getDouble(properties, "window.three", DEFAULT.threeWeight), getDouble(properties, "window.two", DEFAULT.twoWeight),
+					getDouble(properties, "tempo", DEFAULT.tempo));
+		} catch(IllegalArgumentException e){
+			throw new IOException(file + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static double getDouble(Properties properties, String name, double defaultValue){
+		String value = properties.getProperty(name);
+		return value == null? defaultValue : Double.parseDouble(value.trim());
+	}
+
+	/**
+	 * Writes the weights to a parameter file that {@link #load(Path)} can read.
+	 *
+	 * @param file File to write.
+	 * @param comment Written at the top of the file, may be null.
+	 * @throws IOException if the file can't be written.
+	 */
+	public void save(Path file, String comment) throws IOException{
+		try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)){
+			if(comment != null){
+				writer.write("# " + comment + "\n");
+			}
+			writer.write("# Weights for Board.evaluateScore.  Rows count from the bottom, columns from the left.\n");
+			writer.write("win=" + winBonus + "\n");
+			writer.write("window.three=" + threeWeight + "\n");
+			writer.write("window.two=" + twoWeight + "\n");
+			writer.write("tempo=" + tempo + "\n");
+			for(int r = 0; r < Board.NUM_ROWS; ++r){
+				for(int c = 0; c < Board.NUM_COLUMNS; ++c){
+					writer.write("square." + r + "." + c + "=" + square[r][c] + "\n");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the parameter file named by the connectfour.eval.weights system property.  A file that can't be loaded is reported and the defaults
+	 * are used instead.
+	 *
+	 * @return Weights from the file, or the defaults if the property isn't set.
+	 */
+	private static EvaluationWeights fromSystemProperties(){
+		String file = System.getProperty("connectfour.eval.weights");
+		if(file == null){
+			return DEFAULT;
+		}
+		try{
+			return load(Paths.get(file));
+		} catch(IOException e){
+			System.err.println("Using the default evaluation weights: " + e.getMessage());
+			return DEFAULT;
+		}
+	}
+
+	@Override
+	public boolean equals(Object other){
+		if(!(other instanceof EvaluationWeights)) return false;
+		EvaluationWeights weights = (EvaluationWeights)other;
+		return Arrays.deepEquals(square, weights.square) && winBonus == weights.winBonus && threeWeight == weights.threeWeight
+				&& twoWeight == weights.twoWeight && tempo == weights.tempo;
+	}
+
+	@Override
+	public int hashCode(){
+		return version;
+	}
+}
@@ -162,7 +162,44 @@ public class Node {
 		str += " -> " + moveData;
 		return str;
 	}
-	
+
+	/**
+	 * Finds the child the player to move would choose, based on the node values set during the search.
+	 *
+	 * @return Best child, or null if this node has no children.
+	 */
+	public Node getBestChild(){
+		Node best = null;
+		for(Node n : children){
+			if(best == null
+					|| (isRedTurn && n.nodeValue > best.nodeValue)
+					|| (!isRedTurn && n.nodeValue < best.nodeValue)){
+				best = n;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Follows the best child down the searched tree to find the line of play both sides are expected to choose.
+	 *
+	 * @return Sequence of moves starting from this node.
+	 */
+	public int[] getPrincipalVariation(){
+		ArrayList<Integer> line = new ArrayList<Integer>();
+		Node current = this.getBestChild();
+		while(current != null){
+			line.add(current.moveData);
+			current = current.getBestChild();
+		}
+
+		int[] moves = new int[line.size()];
+		for(int i = 0; i < moves.length; ++i){
+			moves[i] = line.get(i);
+		}
+		return moves;
+	}
+
 	
 	
 	public Node getParent(){
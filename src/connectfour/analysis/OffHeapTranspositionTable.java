@@ -0,0 +1,84 @@
+package connectfour.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Transposition table held in direct buffers outside the Java heap, so tables of several gigabytes add nothing for the garbage collector to scan or copy.
+ * 
+ * Each entry takes 16 bytes, the position key followed by the packed entry.  A single buffer can only hold 2GB, so the table is split across as many buffers as it needs.
+ * 
+ * @author Folz
+ *
+ */
+public class OffHeapTranspositionTable implements TranspositionTable {
+	private static final int CHUNK_SHIFT   = 30; //1GB per buffer
+	private static final int ENTRY_SHIFT   = 4;  //16 bytes per entry
+	private static final long CHUNK_ENTRIES = 1L << (CHUNK_SHIFT - ENTRY_SHIFT);
+	
+	private ByteBuffer[] chunks;
+	private long capacity;
+	private long mask;
+	
+	/**
+	 * Creates an empty table.
+	 * 
+	 * @param megabytes Size of the table.
+	 */
+	public OffHeapTranspositionTable(long megabytes){
+		resize(megabytes);
+	}
+
+	@Override
+	public long probe(long key) {
+		long slot         = TranspositionTable.mix(key) & mask;
+		ByteBuffer chunk  = chunks[(int)(slot / CHUNK_ENTRIES)];
+		int offset        = (int)(slot % CHUNK_ENTRIES) << ENTRY_SHIFT;
+		return chunk.getLong(offset) == key? chunk.getLong(offset + 8) : NO_ENTRY;
+	}
+
+	@Override
+	public void store(long key, long entry) {
+		long slot         = TranspositionTable.mix(key) & mask;
+		ByteBuffer chunk  = chunks[(int)(slot / CHUNK_ENTRIES)];
+		int offset        = (int)(slot % CHUNK_ENTRIES) << ENTRY_SHIFT;
+		if(chunk.getLong(offset) != key || TranspositionTable.unpackDepth(entry) >= TranspositionTable.unpackDepth(chunk.getLong(offset + 8))){
+			chunk.putLong(offset, key);
+			chunk.putLong(offset + 8, entry);
+		}
+	}
+
+	@Override
+	public void clear() {
+		for(ByteBuffer chunk : chunks){
+			for(int offset = 0; offset < chunk.capacity(); offset += 8){
+				chunk.putLong(offset, 0);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The old buffers are released once the garbage collector finds them unreachable, so briefly both tables may be held in memory.
+	 */
+	@Override
+	public void resize(long megabytes) {
+		chunks   = null; //let the old buffers go before allocating new ones
+		capacity = TranspositionTable.entriesFor(megabytes);
+		mask     = capacity - 1;
+		
+		int chunkCount = (int)((capacity + CHUNK_ENTRIES - 1) / CHUNK_ENTRIES);
+		ByteBuffer[] newChunks = new ByteBuffer[chunkCount];
+		for(int i = 0; i < chunkCount; ++i){
+			long entriesInChunk = Math.min(CHUNK_ENTRIES, capacity - i * CHUNK_ENTRIES);
+			newChunks[i] = ByteBuffer.allocateDirect((int)(entriesInChunk << ENTRY_SHIFT)).order(ByteOrder.nativeOrder());
+		}
+		chunks = newChunks;
+	}
+
+	@Override
+	public long getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,58 @@
+package connectfour.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Transposition table held in two plain long arrays on the Java heap.  Suited to small tables.
+ * 
+ * @author Folz
+ *
+ */
+public class OnHeapTranspositionTable implements TranspositionTable {
+	private long[] keys;
+	private long[] entries;
+	private int mask;
+	
+	/**
+	 * Creates an empty table.
+	 * 
+	 * @param megabytes Size of the table, at most 16GB since Java arrays are limited to 2^31 entries.
+	 */
+	public OnHeapTranspositionTable(long megabytes){
+		resize(megabytes);
+	}
+
+	@Override
+	public long probe(long key) {
+		int slot = (int)TranspositionTable.mix(key) & mask;
+		return keys[slot] == key? entries[slot] : NO_ENTRY;
+	}
+
+	@Override
+	public void store(long key, long entry) {
+		int slot = (int)TranspositionTable.mix(key) & mask;
+		if(keys[slot] != key || TranspositionTable.unpackDepth(entry) >= TranspositionTable.unpackDepth(entries[slot])){
+			keys[slot]    = key;
+			entries[slot] = entry;
+		}
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(entries, NO_ENTRY);
+	}
+
+	@Override
+	public void resize(long megabytes) {
+		int capacity = (int)Math.min(TranspositionTable.entriesFor(megabytes), 1 << 30);
+		keys    = new long[capacity];
+		entries = new long[capacity];
+		mask    = capacity - 1;
+	}
+
+	@Override
+	public long getCapacity() {
+		return keys.length;
+	}
+}
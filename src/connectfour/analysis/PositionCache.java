@@ -0,0 +1,374 @@
+package connectfour.analysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the move chosen for positions that have already been searched, so that games reaching the same position are answered without searching it again.
+ * Safe to share between every game in the process.
+ *
+ * A position and its mirror image are stored as one entry, keyed by whichever of the two {@link Board#getPositionKey() keys} is smaller, and the move
+ * is mirrored back on the way out.  Moves are kept per search depth, and a lookup only finds a move chosen at the depth asked for unless the caller
+ * opts in to deeper ones: a game played at a low difficulty must not be answered with the stronger moves of a deeper search.  The cache is split into sets of eight entries.  A position can only go in its own set, and when the set is full
+ * the CLOCK policy picks what to evict: a hand sweeps the set, giving every entry that was used since the hand last passed a second chance, and evicts
+ * the first one that wasn't.  Positions that keep coming up stay cached while one-off positions are pushed out.
+ *
+ * The cache can be saved to a snapshot file and loaded again when the process restarts, so it doesn't start cold.  A snapshot can also be mapped
+ * read-only instead of loaded: lookups that miss the cache then look in the mapped file, and several processes mapping the same file share one copy of
+ * it in memory.  Snapshots made with a different {@link Board#getEvaluatorVersion() evaluator} are refused.
+ *
+ * @author Folz
+ *
+ */
+public class PositionCache {
+	private static final int WAYS         = 8;
+	private static final int LOCK_STRIPES = 64;
+	private static final int COLUMN_BITS  = Board.NUM_ROWS + 1;
+	private static final long COLUMN_MASK = (1L << COLUMN_BITS) - 1;
+
+	private static final int SNAPSHOT_MAGIC   = 0x43345043; //"C4PC"
+	private static final int SNAPSHOT_FORMAT  = 1;
+	private static final int SNAPSHOT_HEADER  = 16;         //magic, format, ways, evaluator version, slot count
+	private static final int SNAPSHOT_SLOT    = 12;         //key, entry
+
+	private final long[] keys;       //0 for an empty entry
+	private final int[] entries;     //depth << 8 | move
+	private final boolean[] referenced;
+	private final byte[] hands;      //next entry the clock looks at, per set
+	private final Object[] locks;
+	private final int setMask;
+	private volatile ByteBuffer mappedSnapshot; //slots of a read-only snapshot, checked on a miss
+	private int mappedSetMask;
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity Number of positions to hold at most, rounded down to a power of two.
+	 */
+	public PositionCache(int capacity){
+		int sets    = Integer.highestOneBit(Math.max(1, capacity / WAYS));
+		setMask     = sets - 1;
+		keys        = new long[sets * WAYS];
+		entries     = new int[sets * WAYS];
+		referenced  = new boolean[sets * WAYS];
+		hands       = new byte[sets];
+		locks       = new Object[LOCK_STRIPES];
+		for(int i = 0; i < LOCK_STRIPES; ++i){
+			locks[i] = new Object();
+		}
+		hits      = new LongAdder();
+		misses    = new LongAdder();
+		evictions = new LongAdder();
+	}
+
+	/**
+	 * Creates a cache sized by the connectfour.cache.entries system property, or with a million entries if it isn't set.  If connectfour.cache.snapshot
+	 * names a snapshot file it is loaded, or mapped if connectfour.cache.mapped is true.  A snapshot that can't be used is reported and skipped.
+	 *
+	 * @return The cache.
+	 */
+	public static PositionCache fromSystemProperties(){
+		PositionCache cache = new PositionCache(Integer.getInteger("connectfour.cache.entries", 1 << 20));
+		Path snapshot = getSnapshotPath();
+		if(snapshot != null && Files.exists(snapshot)){
+			try{
+				if(Boolean.getBoolean("connectfour.cache.mapped")){
+					cache.mapSnapshot(snapshot);
+				} else {
+					cache.loadSnapshot(snapshot);
+				}
+			} catch(IOException e){
+				System.err.println("Starting with an empty position cache: " + e.getMessage());
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * @return Snapshot file named by the connectfour.cache.snapshot system property, or null if it isn't set.
+	 */
+	public static Path getSnapshotPath(){
+		String path = System.getProperty("connectfour.cache.snapshot");
+		return path == null? null : Paths.get(path);
+	}
+
+	/**
+	 * Mirrors a position key left to right.
+	 *
+	 * @param key Key from {@link Board#getPositionKey()}.
+	 * @return Key of the mirrored position.
+	 */
+	public static long mirror(long key){
+		long mirrored = 0;
+		for(int c = 0; c < Board.NUM_COLUMNS; ++c){
+			long column = (key >>> (c * COLUMN_BITS)) & COLUMN_MASK;
+			mirrored |= column << ((Board.NUM_COLUMNS - 1 - c) * COLUMN_BITS);
+		}
+		return mirrored;
+	}
+
+	/**
+	 * Looks up the move chosen for a position by a search of exactly the depth asked for.
+	 *
+	 * @param board Position to look up.
+	 * @param ply Depth the caller would otherwise search to.
+	 * @return The cached move, or -1 if there is none.
+	 */
+	public int getBestMove(Board board, int ply){
+		return getBestMove(board, ply, false);
+	}
+
+	/**
+	 * Looks up the move chosen for a position by a search of the depth asked for, or optionally a deeper one.
+	 *
+	 * @param board Position to look up.
+	 * @param ply Depth the caller would otherwise search to.
+	 * @param acceptDeeper True if a move from a deeper search will do, such as for analysis, where a better move is always welcome.
+	 * @return The cached move, or -1 if there is none.
+	 */
+	public int getBestMove(Board board, int ply, boolean acceptDeeper){
+		long key       = board.getPositionKey();
+		long mirrored  = mirror(key);
+		long canonical = Math.min(key, mirrored);
+		int set        = setOf(canonical);
+
+		synchronized(locks[set & (LOCK_STRIPES - 1)]){
+			for(int i = set * WAYS; i < (set + 1) * WAYS; ++i){
+				if(keys[i] == canonical && matches(entries[i] >>> 8, ply, acceptDeeper)){
+					referenced[i] = true;
+					hits.increment();
+					int move = entries[i] & 0xFF;
+					return canonical == key? move : Board.NUM_COLUMNS - 1 - move;
+				}
+			}
+		}
+
+		ByteBuffer snapshot = mappedSnapshot;
+		if(snapshot != null){
+			int mappedSet = (int)TranspositionTable.mix(canonical) & mappedSetMask;
+			for(int i = mappedSet * WAYS; i < (mappedSet + 1) * WAYS; ++i){
+				int offset = SNAPSHOT_HEADER + i * SNAPSHOT_SLOT;
+				int entry  = snapshot.getInt(offset + 8);
+				if(snapshot.getLong(offset) == canonical && matches(entry >>> 8, ply, acceptDeeper)){
+					hits.increment();
+					int move = entry & 0xFF;
+					put(board, entry >>> 8, canonical == key? move : Board.NUM_COLUMNS - 1 - move); //keep it in the cache so it is saved again
+					return canonical == key? move : Board.NUM_COLUMNS - 1 - move;
+				}
+			}
+		}
+		misses.increment();
+		return -1;
+	}
+
+	private static boolean matches(int cachedPly, int ply, boolean acceptDeeper){
+		return cachedPly == ply || (acceptDeeper && cachedPly > ply);
+	}
+
+	/**
+	 * Remembers the move chosen for a position at the depth it was searched to.  The moves chosen at other depths are kept beside it.
+	 *
+	 * @param board Position that was searched.
+	 * @param ply Depth it was searched to.
+	 * @param move Move that was chosen.
+	 */
+	public void put(Board board, int ply, int move){
+		long key       = board.getPositionKey();
+		long mirrored  = mirror(key);
+		long canonical = Math.min(key, mirrored);
+		insert(canonical, ply << 8 | (canonical == key? move : Board.NUM_COLUMNS - 1 - move));
+	}
+
+	private void insert(long canonical, int entry){
+		int ply   = entry >>> 8;
+		int set   = setOf(canonical);
+		int first = set * WAYS;
+
+		synchronized(locks[set & (LOCK_STRIPES - 1)]){
+			int empty = -1;
+			for(int i = first; i < first + WAYS; ++i){
+				if(keys[i] == canonical && (entries[i] >>> 8) == ply){
+					entries[i]    = entry;
+					referenced[i] = true;
+					return;
+				}
+				if(keys[i] == 0 && empty == -1){
+					empty = i;
+				}
+			}
+
+			int slot = empty;
+			if(slot == -1){
+				int hand = hands[set];
+				while(referenced[first + hand]){
+					referenced[first + hand] = false; //second chance
+					hand = (hand + 1) % WAYS;
+				}
+				slot = first + hand;
+				hands[set] = (byte)((hand + 1) % WAYS);
+				evictions.increment();
+			}
+			keys[slot]       = canonical;
+			entries[slot]    = entry;
+			referenced[slot] = false; //must be used again before it earns a second chance
+		}
+	}
+
+	/**
+	 * Empties the cache and resets its counters.
+	 */
+	public void clear(){
+		for(int stripe = 0; stripe < LOCK_STRIPES; ++stripe){
+			synchronized(locks[stripe]){
+				for(int set = stripe; set <= setMask; set += LOCK_STRIPES){
+					for(int i = set * WAYS; i < (set + 1) * WAYS; ++i){
+						keys[i]       = 0;
+						referenced[i] = false;
+					}
+				}
+			}
+		}
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	/**
+	 * Writes every cached position to a snapshot file.  The file is written beside the old one and then moved over it, so a crash never leaves half a snapshot.
+	 *
+	 * @param file File to write.
+	 * @throws IOException if the file can't be written.
+	 */
+	public void saveSnapshot(Path file) throws IOException{
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		ByteBuffer buffer = ByteBuffer.allocateDirect(SNAPSHOT_SLOT * WAYS * 1024);
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			buffer.putInt(SNAPSHOT_MAGIC).putShort((short)SNAPSHOT_FORMAT).putShort((short)WAYS).putInt(Board.getEvaluatorVersion()).putInt(keys.length);
+			for(int set = 0; set <= setMask; ++set){
+				synchronized(locks[set & (LOCK_STRIPES - 1)]){
+					for(int i = set * WAYS; i < (set + 1) * WAYS; ++i){
+						buffer.putLong(keys[i]).putInt(entries[i]);
+					}
+				}
+				if(buffer.remaining() < SNAPSHOT_SLOT * WAYS){
+					writeFully(channel, buffer);
+				}
+			}
+			writeFully(channel, buffer);
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException{
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Adds every position in a snapshot file to the cache.  The snapshot may have been saved from a cache of a different size.
+	 *
+	 * @param file Snapshot to load.
+	 * @throws IOException if the file can't be read, isn't a snapshot, or was made with a different evaluator.
+	 */
+	public void loadSnapshot(Path file) throws IOException{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			ByteBuffer slots = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int slotCount = checkSnapshot(slots, file);
+			for(int i = 0; i < slotCount; ++i){
+				int offset = SNAPSHOT_HEADER + i * SNAPSHOT_SLOT;
+				long key   = slots.getLong(offset);
+				if(key != 0){
+					insert(key, slots.getInt(offset + 8));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps a snapshot file read-only and looks in it whenever a position isn't in the cache.  Positions found there are copied into the cache.
+	 *
+	 * @param file Snapshot to map.
+	 * @throws IOException if the file can't be read, isn't a snapshot, or was made with a different evaluator.
+	 */
+	public void mapSnapshot(Path file) throws IOException{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			MappedByteBuffer slots = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //stays mapped after the channel closes
+			int slotCount = checkSnapshot(slots, file);
+			mappedSetMask  = slotCount / WAYS - 1;
+			mappedSnapshot = slots;
+		}
+	}
+
+	/**
+	 * Checks a snapshot's header.
+	 *
+	 * @return Number of slots in the snapshot.
+	 */
+	private static int checkSnapshot(ByteBuffer snapshot, Path file) throws IOException{
+		if(snapshot.limit() < SNAPSHOT_HEADER || snapshot.getInt(0) != SNAPSHOT_MAGIC){
+			throw new IOException(file + " is not a position cache snapshot");
+		}
+		if(snapshot.getShort(4) != SNAPSHOT_FORMAT || snapshot.getShort(6) != WAYS){
+			throw new IOException(file + " has an unknown snapshot format " + snapshot.getShort(4));
+		}
+		if(snapshot.getInt(8) != Board.getEvaluatorVersion()){
+			throw new IOException(file + " was made with evaluator version " + snapshot.getInt(8) + ", this is version " + Board.getEvaluatorVersion());
+		}
+		int slotCount = snapshot.getInt(12);
+		if(Integer.bitCount(slotCount) != 1 || slotCount < WAYS || snapshot.limit() < SNAPSHOT_HEADER + (long)slotCount * SNAPSHOT_SLOT){
+			throw new IOException(file + " is truncated or damaged");
+		}
+		return slotCount;
+	}
+
+	private int setOf(long canonicalKey){
+		return (int)TranspositionTable.mix(canonicalKey) & setMask;
+	}
+
+	public int getCapacity(){
+		return keys.length;
+	}
+
+	public long getHits(){
+		return hits.sum();
+	}
+
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	public long getEvictions(){
+		return evictions.sum();
+	}
+
+	/**
+	 * @return Fraction of lookups that found a move, 0 if there have been none.
+	 */
+	public double getHitRate(){
+		long hitCount = hits.sum();
+		long lookups  = hitCount + misses.sum();
+		return lookups == 0? 0 : (double)hitCount / lookups;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("position cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d entries",
+				getHits(), getMisses(), getHitRate() * 100, getEvictions(), getCapacity());
+	}
+}
@@ -0,0 +1,68 @@
+package connectfour.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of a search's results after a completed depth.
+ * 
+ * @author Folz
+ *
+ */
+public class SearchInfo {
+	private final int depth;
+	private final int bestMove;
+	private final double score;
+	private final int[] principalVariation;
+	private final long nodes;
+	private final long elapsedMillis;
+	
+	public SearchInfo(int depth, int bestMove, double score, int[] principalVariation, long nodes, long elapsedMillis){
+		this.depth              = depth;
+		this.bestMove           = bestMove;
+		this.score              = score;
+		this.principalVariation = principalVariation;
+		this.nodes              = nodes;
+		this.elapsedMillis      = elapsedMillis;
+	}
+	
+	public int getDepth(){
+		return depth;
+	}
+	
+	public int getBestMove(){
+		return bestMove;
+	}
+	
+	public double getScore(){
+		return score;
+	}
+	
+	/**
+	 * @return Expected sequence of moves starting with the best move.
+	 */
+	public int[] getPrincipalVariation(){
+		return Arrays.copyOf(principalVariation, principalVariation.length);
+	}
+	
+	public long getNodes(){
+		return nodes;
+	}
+	
+	public long getElapsedMillis(){
+		return elapsedMillis;
+	}
+	
+	@Override
+	public String toString(){
+		StringBuilder str = new StringBuilder();
+		str.append("depth ").append(depth)
+		   .append(" score ").append(score)
+		   .append(" nodes ").append(nodes)
+		   .append(" time ").append(elapsedMillis)
+		   .append(" pv");
+		for(int move : principalVariation){
+			str.append(' ').append(move);
+		}
+		return str.toString();
+	}
+}
@@ -0,0 +1,17 @@
+package connectfour.analysis;
+
+/**
+ * Receives progress from a search after each depth has been fully searched.
+ * 
+ * @author Folz
+ *
+ */
+public interface SearchListener {
+	
+	/**
+	 * Called once the search has finished a depth.  Runs on the searching thread, so implementations should return quickly.
+	 * 
+	 * @param info Results of the finished depth.
+	 */
+	void depthCompleted(SearchInfo info);
+}
@@ -0,0 +1,286 @@
+package connectfour.analysis;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs computer player searches for many games on a bounded pool of worker threads.
+ *
+ * Jobs are ordered by priority first, then by how much CPU time their game has already used, so one game running deep searches cannot starve the others.
+ * Games that go over their CPU budget have their searches made shallower, and pondering jobs are refused once the queue starts to back up.
+ * With a {@link PositionCache} set, positions another game has already searched are answered straight away without queueing a search, even when the
+ * queue is too full to take one, and are counted apart from the searches.
+ *
+ * @author Folz
+ *
+ */
+public class SearchScheduler {
+	/**
+	 * How urgently a search result is needed.
+	 */
+	public enum Priority {
+		HUMAN_WAITING, //a player is waiting on the move
+		PONDERING      //speculative search, can be dropped
+	}
+
+	private static final int OVER_BUDGET_PLY_REDUCTION = 2;
+
+	private final ThreadPoolExecutor workers;
+	private final int maxQueuedJobs;
+	private final long cpuBudgetNanos;
+	private final ConcurrentHashMap<Object, AtomicLong> cpuUsed;
+	private final ThreadMXBean threadBean;
+	private final AtomicLong sequence;
+
+	private final AtomicLong completedJobs;
+	private final AtomicLong cachedAnswers;
+	private final AtomicLong rejectedJobs;
+	private final AtomicLong totalWaitNanos;
+	private final AtomicLong maxWaitNanos;
+	private volatile PositionCache positionCache;
+
+	/**
+	 * Creates a scheduler.
+	 *
+	 * @param workerCount Number of searches that may run at the same time.
+	 * @param maxQueuedJobs Number of searches that may wait for a worker before new ones are refused.
+	 * @param cpuBudgetMillis CPU time a single game may use before its searches are shortened.
+	 */
+	public SearchScheduler(int workerCount, int maxQueuedJobs, long cpuBudgetMillis){
+		this.maxQueuedJobs  = maxQueuedJobs;
+		this.cpuBudgetNanos = TimeUnit.MILLISECONDS.toNanos(cpuBudgetMillis);
+		this.cpuUsed        = new ConcurrentHashMap<Object, AtomicLong>();
+		this.threadBean     = ManagementFactory.getThreadMXBean();
+		this.sequence       = new AtomicLong();
+		this.completedJobs  = new AtomicLong();
+		this.cachedAnswers  = new AtomicLong();
+		this.rejectedJobs   = new AtomicLong();
+		this.totalWaitNanos = new AtomicLong();
+		this.maxWaitNanos   = new AtomicLong();
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), (runnable) -> {
+			Thread thread = new Thread(runnable, "search-worker-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues a search for the best move on the given board.
+	 *
+	 * @param gameId Identifies the game the search belongs to, used for CPU accounting.
+	 * @param board Board to search. A copy is taken, so the caller may keep using it.
+	 * @param ply Depth to search to while the game is within its budget.
+	 * @param priority How urgently the move is needed.
+	 * @return The selected move once the search has finished.
+	 * @throws RejectedExecutionException if the queue is too full to admit the search.
+	 */
+	public Future<Integer> submit(Object gameId, Board board, int ply, Priority priority){
+		return submit(gameId, board, ply, priority, null);
+	}
+	
+	/**
+	 * Queues a search for the best move on the given board, calling back once it is done so the caller doesn't have to block on the result.
+	 *
+	 * @param gameId Identifies the game the search belongs to, used for CPU accounting.
+	 * @param board Board to search. A copy is taken, so the caller may keep using it.
+	 * @param ply Depth to search to while the game is within its budget.
+	 * @param priority How urgently the move is needed.
+	 * @param whenDone Called with the finished search, may be null.  It is called on the worker thread, or on the caller's thread before this returns
+	 *                 when the position cache has the answer.
+	 * @return The selected move once the search has finished.
+	 * @throws RejectedExecutionException if the queue is too full to admit the search.
+	 */
+	public Future<Integer> submit(Object gameId, Board board, int ply, Priority priority, Consumer<Future<Integer>> whenDone){
+		if(workers.isShutdown()){
+			rejectedJobs.incrementAndGet();
+			throw new RejectedExecutionException("The scheduler is shut down");
+		}
+
+		PositionCache cache = positionCache;
+		int cachedMove = cache == null? -1 : cache.getBestMove(board, ply);
+		if(cachedMove != -1){
+			FutureTask<Integer> answer = new FutureTask<Integer>(() -> cachedMove){
+				@Override
+				protected void done(){
+					if(whenDone != null){
+						whenDone.accept(this);
+					}
+				}
+			};
+			answer.run(); //cheap enough to answer on the caller's thread, and not a search, so it isn't counted as one
+			cachedAnswers.incrementAndGet();
+			return answer;
+		}
+
+		int queueDepth = getQueueDepth();
+		int limit      = priority == Priority.HUMAN_WAITING? maxQueuedJobs : maxQueuedJobs / 2; //keep room for players who are waiting
+		if(queueDepth >= limit){
+			rejectedJobs.incrementAndGet();
+			throw new RejectedExecutionException("Search queue is full (" + queueDepth + " waiting)");
+		}
+
+		Board boardCopy = new Board(board);
+		SearchJob job = new SearchJob(gameId, priority, whenDone, () -> {
+			int searchPly = ply;
+			if(getCpuUsedNanos(gameId) > cpuBudgetNanos){
+				searchPly = Math.max(1, ply - OVER_BUDGET_PLY_REDUCTION);
+			}
+			int move = new ComputerPlayer(boardCopy.isRedTurn()).getEvenBetterMove(boardCopy, searchPly);
+			if(cache != null){
+				cache.put(boardCopy, searchPly, move);
+			}
+			return move;
+		});
+		workers.execute(job);
+		return job;
+	}
+
+	/**
+	 * Forgets the CPU time used by a game, for when the game ends or its budget period starts over.
+	 *
+	 * @param gameId Game to forget.
+	 */
+	public void releaseGame(Object gameId){
+		cpuUsed.remove(gameId);
+	}
+
+	/**
+	 * Stops accepting searches and waits for the ones already running to finish.
+	 *
+	 * @param timeoutMillis Longest time to wait.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void shutdown(long timeoutMillis) throws InterruptedException{
+		workers.shutdown();
+		workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public PositionCache getPositionCache(){
+		return positionCache;
+	}
+
+	/**
+	 * Sets the cache of searched positions shared by every game on this scheduler.
+	 *
+	 * @param positionCache Cache to use, or null to search every position.
+	 */
+	public void setPositionCache(PositionCache positionCache){
+		this.positionCache = positionCache;
+	}
+
+	private long getCpuUsedNanos(Object gameId){
+		AtomicLong used = cpuUsed.get(gameId);
+		return used == null? 0 : used.get();
+	}
+
+	private void recordWait(long waitNanos){
+		totalWaitNanos.addAndGet(waitNanos);
+		long max = maxWaitNanos.get();
+		while(waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)){
+			max = maxWaitNanos.get();
+		}
+	}
+
+	public int getQueueDepth(){
+		return workers.getQueue().size();
+	}
+
+	public int getActiveSearches(){
+		return workers.getActiveCount();
+	}
+
+	public long getCompletedJobs(){
+		return completedJobs.get();
+	}
+
+	/**
+	 * @return Number of moves answered from the position cache without a search.  These aren't counted in {@link #getCompletedJobs()} or the waits.
+	 */
+	public long getCachedAnswers(){
+		return cachedAnswers.get();
+	}
+
+	public long getRejectedJobs(){
+		return rejectedJobs.get();
+	}
+
+	public double getAverageWaitMillis(){
+		long completed = completedJobs.get();
+		return completed == 0? 0 : totalWaitNanos.get() / 1_000_000.0 / completed;
+	}
+
+	public double getMaxWaitMillis(){
+		return maxWaitNanos.get() / 1_000_000.0;
+	}
+
+	public long getCpuUsedMillis(Object gameId){
+		return TimeUnit.NANOSECONDS.toMillis(getCpuUsedNanos(gameId));
+	}
+
+	/**
+	 * A queued search, ordered by priority, then by the CPU time its game has used, then by arrival.
+	 */
+	private class SearchJob extends FutureTask<Integer> implements Comparable<SearchJob>{
+		private final Object gameId;
+		private final Priority priority;
+		private final Consumer<Future<Integer>> whenDone;
+		private final long cpuUsedAtSubmit;
+		private final long order;
+		private final long submitTime;
+
+		SearchJob(Object gameId, Priority priority, Consumer<Future<Integer>> whenDone, Callable<Integer> search){
+			super(search);
+			this.gameId          = gameId;
+			this.priority        = priority;
+			this.whenDone        = whenDone;
+			this.cpuUsedAtSubmit = getCpuUsedNanos(gameId);
+			this.order           = sequence.getAndIncrement();
+			this.submitTime      = System.nanoTime();
+		}
+
+		@Override
+		public void run(){
+			recordWait(System.nanoTime() - submitTime);
+			long cpuStart = threadBean.getCurrentThreadCpuTime();
+			try{
+				super.run();
+			} finally {
+				long cpuTime = threadBean.getCurrentThreadCpuTime() - cpuStart;
+				cpuUsed.computeIfAbsent(gameId, (key) -> new AtomicLong()).addAndGet(cpuTime);
+				completedJobs.incrementAndGet();
+			}
+		}
+
+		@Override
+		protected void done(){
+			if(whenDone != null){
+				whenDone.accept(this);
+			}
+		}
+
+		@Override
+		public int compareTo(SearchJob other){
+			int result = priority.compareTo(other.priority);
+			if(result == 0){
+				result = Long.compare(cpuUsedAtSubmit, other.cpuUsedAtSubmit);
+			}
+			if(result == 0){
+				result = Long.compare(order, other.order);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package connectfour.analysis;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Transposition table that any number of search threads can probe and store into at the same time without locking.
+ * 
+ * Each slot holds the packed entry and the position key XORed with that entry.  Two threads writing the same slot at once can leave
+ * the halves from different writes, but then the XOR of the two no longer gives the probed key, so the torn slot reads as a miss
+ * instead of returning another position's result.
+ * 
+ * @author Folz
+ *
+ */
+public class SharedTranspositionTable implements TranspositionTable {
+	private volatile AtomicLongArray slots; //pairs of (key ^ entry, entry)
+	
+	/**
+	 * Creates an empty table.
+	 * 
+	 * @param megabytes Size of the table, at most 16GB.
+	 */
+	public SharedTranspositionTable(long megabytes){
+		resize(megabytes);
+	}
+
+	@Override
+	public long probe(long key) {
+		AtomicLongArray table = slots;
+		int index  = slotIndex(table, key);
+		long entry = table.get(index + 1);
+		long check = table.get(index);
+		return (check ^ entry) == key? entry : NO_ENTRY;
+	}
+
+	@Override
+	public void store(long key, long entry) {
+		AtomicLongArray table = slots;
+		int index    = slotIndex(table, key);
+		long current = table.get(index + 1);
+		if(((table.get(index) ^ current) != key) || TranspositionTable.unpackDepth(entry) >= TranspositionTable.unpackDepth(current)){
+			table.lazySet(index + 1, entry);
+			table.lazySet(index, key ^ entry);
+		}
+	}
+
+	@Override
+	public void clear() {
+		AtomicLongArray table = slots;
+		for(int i = 0; i < table.length(); ++i){
+			table.lazySet(i, 0);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Searches still running against the old table finish with it, so only resize between searches.
+	 */
+	@Override
+	public void resize(long megabytes) {
+		int capacity = (int)Math.min(TranspositionTable.entriesFor(megabytes), 1 << 29);
+		slots = new AtomicLongArray(capacity << 1);
+	}
+	
+	/**
+	 * Finds where a key belongs, using the size of the given array so a concurrent resize can't send a thread out of bounds.
+	 * 
+	 * @param table Slot array being used.
+	 * @param key Key of the position.
+	 * @return Index of the first long of the key's slot.
+	 */
+	private static int slotIndex(AtomicLongArray table, long key){
+		int capacity = table.length() >> 1;
+		return ((int)TranspositionTable.mix(key) & (capacity - 1)) << 1;
+	}
+
+	@Override
+	public long getCapacity() {
+		return slots.length() >> 1;
+	}
+}
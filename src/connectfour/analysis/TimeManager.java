@@ -0,0 +1,100 @@
+package connectfour.analysis;
+
+/**
+ * Decides how long the computer player may think about a move when it is playing to a clock.
+ *
+ * Each move gets a share of the remaining time, spread over the moves the player may still have to make, plus most of the increment.  That share is
+ * the soft limit: after each finished depth the search stops if the next depth isn't expected to finish within it.  The soft limit shrinks when
+ * few moves are legal or the best move has stayed the same for several depths, and grows when the best move or the score has just changed, since
+ * that is when searching deeper is most likely to change the answer.  The hard limit stops the search outright, however far it has got, and never
+ * lets the player run out of time.
+ *
+ * @author Folz
+ *
+ */
+public class TimeManager {
+	private static final int MIN_MOVES_TO_GO   = 3;
+	private static final long SAFETY_MILLIS    = 50;   //kept back for the move to reach the clock
+	private static final double UNSTABLE_SCALE = 1.6;  //best move just changed
+	private static final double SWING_SCALE    = 1.3;  //score moved a lot since the last depth of the same parity
+	private static final double STABLE_SCALE   = 0.6;  //best move unchanged for several depths
+	private static final int STABLE_DEPTHS     = 4;
+	private static final double SCORE_SWING    = 0.5;
+
+	private final long softLimit;
+	private final long hardLimit;
+	private int lastBestMove;
+	private int stableDepths;
+	private final double[] depthScores;
+	private long lastDepthMillis;
+	private long lastElapsedMillis;
+
+	/**
+	 * Works out the time limits for a move.
+	 *
+	 * @param board Position the move is for.
+	 * @param remainingMillis Time left on the player's clock.
+	 * @param incrementMillis Time added to the player's clock after each move.
+	 */
+	public TimeManager(Board board, long remainingMillis, long incrementMillis){
+		int squaresLeft  = Board.NUM_ROWS * Board.NUM_COLUMNS - board.getNumOfMoves();
+		int movesToGo    = Math.max(MIN_MOVES_TO_GO, (squaresLeft + 1) / 2);
+		int legalMoves   = board.generateMoveList().size();
+		long usable      = Math.max(0, remainingMillis - SAFETY_MILLIS);
+
+		double share     = (double)usable / movesToGo + 0.9 * incrementMillis;
+		share           *= 0.6 + 0.4 * legalMoves / Board.NUM_COLUMNS; //fewer choices need less thought
+		this.hardLimit   = legalMoves <= 1? 0 : Math.min(usable, Math.max(1, (long)Math.min(share * 4, usable * 0.4 + incrementMillis)));
+		this.softLimit   = Math.min(hardLimit, (long)share);
+		this.lastBestMove = -1;
+		this.depthScores  = new double[squaresLeft + 2];
+	}
+
+	/**
+	 * @return Time the search should usually stop by.
+	 */
+	public long getSoftLimit(){
+		return softLimit;
+	}
+
+	/**
+	 * @return Time the search must stop by.
+	 */
+	public long getHardLimit(){
+		return hardLimit;
+	}
+
+	/**
+	 * Decides, after a depth has finished, whether to search another one.
+	 *
+	 * @param info Results of the finished depth.
+	 * @return True to stop searching.
+	 */
+	public boolean depthCompleted(SearchInfo info){
+		int depth          = info.getDepth();
+		long elapsed       = info.getElapsedMillis();
+		long depthMillis   = elapsed - lastElapsedMillis;
+		double growth      = lastDepthMillis > 0? Math.max(1.5, Math.min(8, (double)depthMillis / lastDepthMillis)) : 4;
+		lastDepthMillis    = Math.max(1, depthMillis);
+		lastElapsedMillis  = elapsed;
+
+		stableDepths = info.getBestMove() == lastBestMove? stableDepths + 1 : 0;
+		lastBestMove = info.getBestMove();
+		if(depth < depthScores.length){
+			depthScores[depth] = info.getScore();
+		}
+
+		double scale = 1;
+		if(stableDepths == 0 && depth > 2){
+			scale *= UNSTABLE_SCALE;
+		} else if(stableDepths >= STABLE_DEPTHS){
+			scale *= STABLE_SCALE;
+		}
+		if(depth > 2 && depth < depthScores.length && Math.abs(depthScores[depth] - depthScores[depth - 2]) > SCORE_SWING){
+			scale *= SWING_SCALE;
+		}
+
+		long target = Math.min(hardLimit, (long)(softLimit * scale));
+		return elapsed + lastDepthMillis * growth > target;
+	}
+}
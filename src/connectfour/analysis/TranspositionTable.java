@@ -0,0 +1,155 @@
+package connectfour.analysis;
+
+/**
+ * A hash table of search results keyed by position, so a position reached again by a different order of moves does not have to be searched again.
+ * 
+ * Entries are packed into a single long by {@link #pack(double, int, int, int)} so backends can store them without allocating objects.
+ * 
+ * @author Folz
+ *
+ */
+public interface TranspositionTable {
+	/** Stored score is the exact value of the position. */
+	int EXACT = 0;
+	/** Stored score is a lower bound, the search failed high. */
+	int LOWER_BOUND = 1;
+	/** Stored score is an upper bound, the search failed low. */
+	int UPPER_BOUND = 2;
+	
+	/** Returned by {@link #probe(long)} when the position is not in the table. */
+	long NO_ENTRY = 0;
+	/** Move stored when the entry has no best move. */
+	int NO_MOVE = 7;
+	
+	/** Bytes used by a single entry, a key and its packed data. */
+	int ENTRY_BYTES = 16;
+	
+	/** Deepest search a 1MB table is big enough for: searches up to this deep visit well under its 65536 entries. */
+	int SMALL_TABLE_DEPTH = 8;
+	
+	/**
+	 * Looks up a position.
+	 * 
+	 * @param key Key of the position, from {@link Board#getPositionKey()}.
+	 * @return Packed entry, or {@link #NO_ENTRY} if the position is not stored.
+	 */
+	long probe(long key);
+	
+	/**
+	 * Stores the result of searching a position, replacing what was in its slot if the new result is from a different position or at least as deep a search.
+	 * 
+	 * @param key Key of the position, from {@link Board#getPositionKey()}.
+	 * @param entry Packed entry from {@link #pack(double, int, int, int)}.
+	 */
+	void store(long key, long entry);
+	
+	/**
+	 * Removes every entry.
+	 */
+	void clear();
+	
+	/**
+	 * Changes the size of the table.  All entries are removed.
+	 * 
+	 * @param megabytes New size, rounded down to a power of two number of entries.
+	 */
+	void resize(long megabytes);
+	
+	/**
+	 * @return Number of entries the table can hold.
+	 */
+	long getCapacity();
+	
+	/**
+	 * Creates a table using the configuration in the system properties:
+	 * connectfour.hash.mb for the size in megabytes (default 16), connectfour.hash.offheap to keep the table outside the Java heap (default false)
+	 * and connectfour.hash.shared for a table that several search threads can use at once (default false).
+	 * 
+	 * @return New empty table.
+	 */
+	static TranspositionTable fromSystemProperties(){
+		return fromSystemProperties(Long.getLong("connectfour.hash.mb", 16));
+	}
+	
+	/**
+	 * Creates a table of the kind configured in the system properties, but only as big as a search to the given depth needs: 1MB up to
+	 * {@link #SMALL_TABLE_DEPTH}, doubling with every ply past it, and never bigger than connectfour.hash.mb.  For searches that start from an empty
+	 * table every time, where clearing a big table would take longer than a shallow search.
+	 * 
+	 * @param depth Ply the table's searches go to.
+	 * @return New empty table.
+	 */
+	static TranspositionTable forDepth(int depth){
+		long megabytes = 1L << Math.min(Math.max(0, depth - SMALL_TABLE_DEPTH), 20);
+		return fromSystemProperties(Math.min(megabytes, Long.getLong("connectfour.hash.mb", 16)));
+	}
+	
+	/**
+	 * Creates a table of the given size, of the kind configured by connectfour.hash.offheap and connectfour.hash.shared.
+	 * 
+	 * @param megabytes Size of the table.
+	 * @return New empty table.
+	 */
+	static TranspositionTable fromSystemProperties(long megabytes){
+		if(Boolean.getBoolean("connectfour.hash.shared")){
+			return new SharedTranspositionTable(megabytes);
+		}
+		boolean offHeap = Boolean.getBoolean("connectfour.hash.offheap");
+		return offHeap? new OffHeapTranspositionTable(megabytes) : new OnHeapTranspositionTable(megabytes);
+	}
+	
+	/**
+	 * Packs a search result into a single non-zero long: score as a float in the low 32 bits, then 8 bits of depth, 2 bits of bound type and 3 bits of move.
+	 * 
+	 * @param score Value of the position.
+	 * @param depth Ply the position was searched to.
+	 * @param bound {@link #EXACT}, {@link #LOWER_BOUND} or {@link #UPPER_BOUND}.
+	 * @param move Best move found, or {@link #NO_MOVE}.
+	 * @return Packed entry.
+	 */
+	static long pack(double score, int depth, int bound, int move){
+		return (Float.floatToIntBits((float)score) & 0xFFFF_FFFFL)
+				| ((long)Math.min(depth, 255) << 32)
+				| ((long)bound << 40)
+				| ((long)move << 42)
+				| (1L << 63); //marks the entry as used
+	}
+	
+	static double unpackScore(long entry){
+		return Float.intBitsToFloat((int)entry);
+	}
+	
+	static int unpackDepth(long entry){
+		return (int)(entry >>> 32) & 0xFF;
+	}
+	
+	static int unpackBound(long entry){
+		return (int)(entry >>> 40) & 0x3;
+	}
+	
+	static int unpackMove(long entry){
+		return (int)(entry >>> 42) & 0x7;
+	}
+	
+	/**
+	 * Works out how many entries fit in the given size, rounded down to a power of two so slots can be found with a mask.
+	 * 
+	 * @param megabytes Size of the table.
+	 * @return Number of entries.
+	 */
+	static long entriesFor(long megabytes){
+		long entries = Math.max(1, (megabytes << 20) / ENTRY_BYTES);
+		return Long.highestOneBit(entries);
+	}
+	
+	/**
+	 * Spreads the bits of a position key so neighboring positions do not share slots.
+	 * 
+	 * @param key Key of the position.
+	 * @return Mixed key.
+	 */
+	static long mix(long key){
+		key *= 0x9E37_79B9_7F4A_7C15L;
+		return key ^ (key >>> 29);
+	}
+}
@@ -0,0 +1,171 @@
+package connectfour.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * One client connected to the {@link GameServer}, with its partly read input, its output still to be written, and the games it is part of.
+ * 
+ * Both buffers are allocated once per connection and reused for every message, see {@link GameProtocol}.
+ * 
+ * @author Folz
+ *
+ */
+class ClientConnection {
+	private static final int READ_BUFFER_BYTES  = 64 * GameProtocol.MAX_FRAME_BYTES;
+	private static final int WRITE_BUFFER_BYTES = 8 * 1024;
+	private static final ByteBuffer DISCARD     = ByteBuffer.allocate(GameProtocol.MAX_FRAME_BYTES);
+	
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final ByteBuffer readBuffer;
+	private final ByteBuffer writeBuffer;
+	
+	final ArrayList<GameRoom> rooms;
+	
+	ClientConnection(SocketChannel channel, SelectionKey key){
+		this.channel     = channel;
+		this.key         = key;
+		this.readBuffer  = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+		this.writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+		this.rooms       = new ArrayList<GameRoom>(1);
+	}
+	
+	/**
+	 * Reads whatever the client has sent.
+	 * 
+	 * @return False once the client has closed the connection.
+	 * @throws IOException if reading fails.
+	 */
+	boolean read() throws IOException{
+		return channel.read(readBuffer) >= 0;
+	}
+	
+	/**
+	 * Takes the next complete message out of the read buffer.
+	 * 
+	 * @param message Message to decode into.
+	 * @return False if a whole message hasn't arrived yet.
+	 * @throws IOException if the client sent a malformed frame.
+	 */
+	boolean nextMessage(GameProtocol.Message message) throws IOException{
+		readBuffer.flip();
+		try{
+			return GameProtocol.read(readBuffer, message);
+		} finally {
+			readBuffer.compact();
+		}
+	}
+	
+	/**
+	 * Gives the buffer to encode the next message into.  Call {@link #flush()} once the message is written.
+	 * A client that isn't reading fast enough to leave room for another message is disconnected, and its output thrown away.
+	 * 
+	 * @return Buffer with room for at least one message.
+	 */
+	ByteBuffer output(){
+		if(writeBuffer.remaining() < GameProtocol.MAX_FRAME_BYTES){
+			try{
+				flush();
+			} catch(IOException e){
+				close();
+			}
+		}
+		if(writeBuffer.remaining() < GameProtocol.MAX_FRAME_BYTES || !channel.isOpen()){
+			close();
+			DISCARD.clear();
+			return DISCARD;
+		}
+		return writeBuffer;
+	}
+	
+	/**
+	 * Writes buffered output until it is all sent or the socket is full, in which case the selector is asked to say when it can take more.
+	 * 
+	 * @throws IOException if writing fails.
+	 */
+	void flush() throws IOException{
+		if(!channel.isOpen()) return;
+		writeBuffer.flip();
+		try{
+			channel.write(writeBuffer);
+		} finally {
+			writeBuffer.compact();
+		}
+		if(key.isValid()){
+			key.interestOps(writeBuffer.position() == 0? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+	
+	/**
+	 * Sends a frame that is shared with other connections, writing it straight from the shared buffer when nothing else is waiting to go out.
+	 * Whatever the socket can't take right away is kept in the write buffer.
+	 * 
+	 * @param frame The frame, positioned so only this connection moves it.
+	 * @param maxBacklog Bytes that may already be waiting to be written before the frame is refused.
+	 * @return False, with nothing sent, if the connection is closed or too far behind.
+	 */
+	boolean offer(ByteBuffer frame, int maxBacklog){
+		if(!channel.isOpen() || writeBuffer.position() > maxBacklog || writeBuffer.remaining() < frame.remaining()){
+			return false;
+		}
+		if(writeBuffer.position() == 0){
+			try{
+				channel.write(frame);
+			} catch(IOException e){
+				close();
+				return false;
+			}
+		}
+		if(frame.hasRemaining()){
+			writeBuffer.put(frame);
+			if(key.isValid()){
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return Bytes written for the client that it hasn't taken yet.
+	 */
+	int getBacklog(){
+		return writeBuffer.position();
+	}
+	
+	/**
+	 * Flushes without throwing, closing the connection if the write fails.
+	 */
+	void flushQuietly(){
+		try{
+			flush();
+		} catch(IOException e){
+			close();
+		}
+	}
+	
+	GameRoom findRoom(int gameId){
+		for(GameRoom room : rooms){
+			if(room.id == gameId){
+				return room;
+			}
+		}
+		return null;
+	}
+	
+	boolean isOpen(){
+		return channel.isOpen();
+	}
+	
+	void close(){
+		key.cancel();
+		try{
+			channel.close();
+		} catch(IOException e){
+			//already closed
+		}
+	}
+}
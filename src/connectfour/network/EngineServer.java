@@ -0,0 +1,457 @@
+package connectfour.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.PositionCache;
+import connectfour.analysis.SearchScheduler;
+import connectfour.analysis.SearchScheduler.Priority;
+import connectfour.util.GameJournal;
+
+/**
+ * A server where every client plays the computer, written as plain blocking code with one thread per connection.
+ *
+ * When the JVM has virtual threads each connection gets a virtual thread, which costs a few hundred bytes while it waits on its socket, so idle games
+ * are cheap enough to keep tens of thousands open.  On older JVMs it falls back to an ordinary platform thread per connection.  Either way the searches
+ * themselves run on the bounded {@link SearchScheduler} pool, and the connection's thread just waits for the result.
+ *
+ * Clients speak {@link GameProtocol}, the same as with {@link GameServer}, so {@link LoadTestClient} can be pointed at either.  Only games against the
+ * computer are offered; games between two clients need {@link GameServer}.
+ *
+ * @author Folz
+ *
+ */
+public class EngineServer {
+	private static final long RETRY_MILLIS = 100;
+	private static final int OUTPUT_BUFFER_BYTES = 4 * GameProtocol.MAX_FRAME_BYTES;
+
+	private final ServerSocket serverSocket;
+	private final SearchScheduler scheduler;
+	private final ExecutorService connectionThreads;
+	private final Set<Socket> clients;
+	private final boolean virtualThreads;
+	private final AtomicInteger nextGameId;
+	private final AtomicInteger connectionCount;
+	private final AtomicInteger activeGames;
+	private final AtomicLong finishedGames;
+	private volatile GameJournal journal;
+	private volatile boolean running;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * A game between one client and the computer, only ever touched by its connection's thread.
+	 */
+	private static class EngineGame {
+		final int id;
+		final boolean engineIsRed;
+		final boolean engineIsYellow;
+		final int ply;
+		Board board = new Board();
+
+		EngineGame(int id, boolean engineIsRed, boolean engineIsYellow, int ply){
+			this.id             = id;
+			this.engineIsRed    = engineIsRed;
+			this.engineIsYellow = engineIsYellow;
+			this.ply            = ply;
+		}
+
+		boolean isEngineTurn(){
+			return board.isRedTurn()? engineIsRed : engineIsYellow;
+		}
+
+		boolean isOver(){
+			return Math.abs(board.getValue()) > 1_000 || board.getNumOfMoves() >= Board.NUM_ROWS * Board.NUM_COLUMNS;
+		}
+
+		byte result(){
+			double value = board.getValue();
+			return value > 1_000? GameProtocol.RED : value < -1_000? GameProtocol.YELLOW : GameProtocol.DRAW;
+		}
+	}
+
+	/**
+	 * Opens the server socket.  Nothing is accepted until {@link #run()} is called.
+	 *
+	 * @param port Port to listen on.
+	 * @param scheduler Scheduler to run computer player searches on.
+	 * @param usePlatformThreads True to give each connection a platform thread even when virtual threads are available.
+	 * @throws IOException if the port can't be opened.
+	 */
+	public EngineServer(int port, SearchScheduler scheduler, boolean usePlatformThreads) throws IOException{
+		ExecutorService virtual = usePlatformThreads? null : newVirtualThreadExecutor();
+
+		this.scheduler         = scheduler;
+		this.virtualThreads    = virtual != null;
+		this.connectionThreads = virtual != null? virtual : Executors.newCachedThreadPool((runnable) -> {
+			Thread thread = new Thread(null, runnable, "engine-connection", 256 * 1024);
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.clients         = ConcurrentHashMap.newKeySet();
+		this.nextGameId      = new AtomicInteger(1);
+		this.connectionCount = new AtomicInteger();
+		this.activeGames     = new AtomicInteger();
+		this.finishedGames   = new AtomicLong();
+		this.serverSocket    = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(port), 1024);
+	}
+
+	/**
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor, which only exists from Java 21 on.
+	 *
+	 * @return An executor that starts a virtual thread per task, or null if this JVM doesn't have virtual threads.
+	 */
+	private static ExecutorService newVirtualThreadExecutor(){
+		try{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		} catch(ReflectiveOperationException | UnsupportedOperationException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Accepts clients until {@link #shutdown()} is called, handing each one its own thread.
+	 *
+	 * @throws IOException if the server socket fails.
+	 */
+	public void run() throws IOException{
+		try{
+			acceptClients();
+		} finally {
+			connectionThreads.shutdown(); //not interrupted: an interrupt during a journal write would close the journal's file under every thread
+			stopped.countDown();
+		}
+	}
+
+	private void acceptClients() throws IOException{
+		running = true;
+		while(running){
+			Socket socket;
+			try{
+				socket = serverSocket.accept();
+			} catch(IOException e){
+				if(!running) break;
+				throw e;
+			}
+			socket.setTcpNoDelay(true);
+			clients.add(socket);
+			if(!running){
+				closeQuietly(socket); //shutdown() may have closed the others before this one was added
+				break;
+			}
+			connectionThreads.execute(() -> serve(socket));
+		}
+	}
+
+	/**
+	 * Stops accepting clients and closes the server socket.  Connections already open are closed too, which ends their threads and abandons their
+	 * games.
+	 */
+	public void shutdown(){
+		running = false;
+		closeQuietly(serverSocket);
+		for(Socket client : clients){
+			closeQuietly(client);
+		}
+	}
+
+	/**
+	 * Waits for {@link #run()} to return after {@link #shutdown()} and for every connection's thread to finish recording its games.
+	 *
+	 * @param timeoutMillis Longest to wait.
+	 * @return True if the server stopped in time.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitStop(long timeoutMillis) throws InterruptedException{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		return stopped.await(timeoutMillis, TimeUnit.MILLISECONDS)
+				&& connectionThreads.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	private static void closeQuietly(Closeable closeable){
+		try{
+			closeable.close();
+		} catch(IOException e){
+			//closing anyway
+		}
+	}
+
+	/**
+	 * Plays every game a client asks for until it disconnects.  Runs on the connection's own thread and blocks freely.
+	 *
+	 * @param socket The client.
+	 */
+	private void serve(Socket socket){
+		connectionCount.incrementAndGet();
+		HashMap<Integer, EngineGame> games = new HashMap<Integer, EngineGame>(4);
+		try(Socket client = socket){
+			DataInputStream in   = new DataInputStream(new BufferedInputStream(client.getInputStream(), 512));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream(), 512));
+			ByteBuffer output    = ByteBuffer.allocate(OUTPUT_BUFFER_BYTES);
+			GameProtocol.Message message = new GameProtocol.Message();
+
+			while(running){
+				GameProtocol.read(in, message);
+				handleMessage(games, message, output, out);
+			}
+		} catch(EOFException e){
+			//client hung up
+		} catch(IOException e){
+			//connection failed, its games are abandoned below
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		} finally {
+			for(EngineGame game : games.values()){
+				record(game, GameJournal.ABANDONED);
+				finishGame(game);
+			}
+			clients.remove(socket);
+			connectionCount.decrementAndGet();
+		}
+	}
+
+	private void handleMessage(HashMap<Integer, EngineGame> games, GameProtocol.Message message, ByteBuffer output, DataOutputStream out) throws IOException, InterruptedException{
+		EngineGame game = message.opcode == GameProtocol.GAME? null : games.get(message.gameId);
+		if(message.opcode != GameProtocol.GAME && game == null){
+			sendError(output, out, message, GameProtocol.UNKNOWN_GAME);
+			return;
+		}
+
+		switch(message.opcode){
+			case GameProtocol.GAME:
+				if(message.payloadLength < 2){
+					sendError(output, out, message, GameProtocol.BAD_MESSAGE);
+					break;
+				}
+				int ply = Math.max(1, Math.min(12, message.payload[1]));
+				byte role;
+				switch(message.payload[0]){
+					case GameProtocol.VS_ENGINE_AS_RED:
+						game = new EngineGame(nextGameId.getAndIncrement(), false, true, ply);
+						role = GameProtocol.RED;
+						break;
+					case GameProtocol.VS_ENGINE_AS_YELLOW:
+						game = new EngineGame(nextGameId.getAndIncrement(), true, false, ply);
+						role = GameProtocol.YELLOW;
+						break;
+					case GameProtocol.WATCH_ENGINE:
+						game = new EngineGame(nextGameId.getAndIncrement(), true, true, ply);
+						role = GameProtocol.WATCHER;
+						break;
+					default:
+						sendError(output, out, message, GameProtocol.BAD_MESSAGE);
+						return;
+				}
+				games.put(game.id, game);
+				activeGames.incrementAndGet();
+				GameProtocol.writeGameStarted(output, game.id, message.sequence, role);
+				GameProtocol.send(out, output);
+				playEngineMoves(games, game, output, out);
+				break;
+			case GameProtocol.MOVE:
+				int column = message.payloadLength > 0? message.payload[0] : -1;
+				if(game.isEngineTurn()){
+					sendError(output, out, message, GameProtocol.NOT_YOUR_TURN);
+				} else if(message.sequence != game.board.getNumOfMoves()){
+					sendError(output, out, message, GameProtocol.OUT_OF_SEQUENCE);
+				} else if(column < 0 || column >= Board.NUM_COLUMNS || !game.board.getLegalColumns()[column]){
+					sendError(output, out, message, GameProtocol.ILLEGAL_MOVE);
+				} else {
+					game.board = new Board(game.board, column);
+					playEngineMoves(games, game, output, out);
+				}
+				break;
+			case GameProtocol.RESIGN:
+				endGame(games, game, game.engineIsRed? GameProtocol.RED : GameProtocol.YELLOW, output, out);
+				break;
+			case GameProtocol.SYNC:
+				sendError(output, out, message, GameProtocol.BAD_MESSAGE); //the client already has every move, nothing is played without it
+				break;
+			default:
+				sendError(output, out, message, GameProtocol.BAD_MESSAGE);
+		}
+	}
+
+	/**
+	 * Plays the computer's moves until it is the client's turn or the game is over, waiting on the scheduler for each one.
+	 */
+	private void playEngineMoves(HashMap<Integer, EngineGame> games, EngineGame game, ByteBuffer output, DataOutputStream out) throws IOException, InterruptedException{
+		while(!game.isOver() && game.isEngineTurn()){
+			int column = searchMove(game);
+			GameProtocol.writeMove(output, game.id, game.board.getNumOfMoves(), column);
+			GameProtocol.send(out, output);
+			game.board = new Board(game.board, column);
+		}
+		if(game.isOver()){
+			endGame(games, game, game.result(), output, out);
+		} else {
+			record(game, GameJournal.IN_PROGRESS);
+		}
+	}
+
+	/**
+	 * Waits for the scheduler to find the computer's move, trying again shortly whenever the scheduler is too busy to take the search.
+	 */
+	private int searchMove(EngineGame game) throws InterruptedException{
+		Priority priority = game.engineIsRed && game.engineIsYellow? Priority.PONDERING : Priority.HUMAN_WAITING;
+		while(true){
+			try{
+				return scheduler.submit(game.id, game.board, game.ply, priority).get();
+			} catch(RejectedExecutionException e){
+				Thread.sleep(RETRY_MILLIS);
+			} catch(ExecutionException e){
+				throw new IllegalStateException("Search failed", e.getCause());
+			}
+		}
+	}
+
+	private void endGame(HashMap<Integer, EngineGame> games, EngineGame game, byte result, ByteBuffer output, DataOutputStream out) throws IOException{
+		games.remove(game.id);
+		record(game, result); //results use the same letters in the journal
+		finishGame(game);
+		GameProtocol.writeEnd(output, game.id, game.board.getNumOfMoves(), result);
+		GameProtocol.send(out, output);
+	}
+
+	private void record(EngineGame game, byte status){
+		GameJournal gameJournal = journal;
+		if(gameJournal == null) return;
+		try{
+			gameJournal.append(game.id, status, game.board);
+		} catch(IOException e){
+			System.err.println("Stopped journaling games: " + e.getMessage());
+			journal = null;
+		}
+	}
+
+	private void finishGame(EngineGame game){
+		scheduler.releaseGame(game.id);
+		activeGames.decrementAndGet();
+		finishedGames.incrementAndGet();
+	}
+
+	private void sendError(ByteBuffer output, DataOutputStream out, GameProtocol.Message message, byte reason) throws IOException{
+		GameProtocol.writeError(output, message.gameId, message.sequence, reason);
+		GameProtocol.send(out, output);
+	}
+
+	/**
+	 * Sets the journal every game is recorded in.  Games are numbered on from the highest ID already in the journal, so a restarted server doesn't
+	 * reuse the IDs of games recorded before.
+	 *
+	 * @param journal Journal to record games in, or null to not record them.
+	 */
+	public void setJournal(GameJournal journal){
+		this.journal = journal;
+		if(journal != null){
+			nextGameId.accumulateAndGet(journal.getHighestGameId() + 1, Math::max);
+		}
+	}
+
+	public boolean isUsingVirtualThreads(){
+		return virtualThreads;
+	}
+
+	public int getConnectionCount(){
+		return connectionCount.get();
+	}
+
+	public int getActiveGames(){
+		return activeGames.get();
+	}
+
+	public long getFinishedGames(){
+		return finishedGames.get();
+	}
+
+	/**
+	 * Starts a server from the command line, printing how many connections, platform threads and how much heap it is using every few seconds.
+	 *
+	 * @param args Optional port, number of search threads, and "platform" to use a platform thread per connection even where virtual threads exist.
+	 *             Games are journaled to the directory named by the connectfour.journal.dir system property, if it is set.
+	 * @throws IOException if the server can't be started.
+	 */
+	public static void main(String... args) throws IOException{
+		int port          = args.length > 0? Integer.parseInt(args[0]) : GameServer.DEFAULT_PORT;
+		int workers       = args.length > 1? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		boolean platform  = args.length > 2 && args[2].equals("platform");
+		SearchScheduler scheduler = new SearchScheduler(workers, 10_000, 60_000);
+		PositionCache cache = PositionCache.fromSystemProperties();
+		scheduler.setPositionCache(cache);
+		EngineServer server = new EngineServer(port, scheduler, platform);
+		String journalDirectory = System.getProperty("connectfour.journal.dir");
+		GameJournal journal = journalDirectory == null? null : new GameJournal(Paths.get(journalDirectory));
+		server.setJournal(journal);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.shutdown();
+			try{
+				if(!server.awaitStop(5_000)){
+					System.err.println("The server didn't stop in time, games still being played may not be journaled");
+				}
+				scheduler.shutdown(5_000); //searches still running write to the cache, so it is only saved after them
+				if(PositionCache.getSnapshotPath() != null){
+					cache.saveSnapshot(PositionCache.getSnapshotPath());
+				}
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			} catch(IOException e){
+				System.err.println("Couldn't save the position cache: " + e.getMessage());
+			}
+			try{
+				if(journal != null){
+					journal.close();
+				}
+			} catch(IOException e){
+				System.err.println("Couldn't close the game journal: " + e.getMessage());
+			}
+		}));
+
+		Thread stats = new Thread(() -> {
+			Runtime runtime = Runtime.getRuntime();
+			while(true){
+				try{
+					TimeUnit.SECONDS.sleep(5);
+				} catch(InterruptedException e){
+					return;
+				}
+				long heapUsed  = runtime.totalMemory() - runtime.freeMemory();
+				int connections = server.getConnectionCount();
+				System.out.println(String.format("%d connections, %d games (%d finished), %d platform threads, heap %.1f MB (%.1f KB per connection)",
+						connections, server.getActiveGames(), server.getFinishedGames(), ManagementFactory.getThreadMXBean().getThreadCount(),
+						heapUsed / 1e6, connections == 0? 0 : heapUsed / 1e3 / connections));
+				System.out.println(cache);
+			}
+		}, "engine-server-stats");
+		stats.setDaemon(true);
+		stats.start();
+
+		System.out.println("Serving engine games on port " + port + (server.isUsingVirtualThreads()? " with virtual threads" : " with a platform thread per connection"));
+		server.run();
+	}
+}
@@ -0,0 +1,229 @@
+package connectfour.network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import connectfour.analysis.Board;
+
+/**
+ * Encodes and decodes the binary messages used between networked players and the {@link GameServer}.
+ *
+ * Every message is a frame of: a 2 byte length of the rest of the frame, a 1 byte opcode, a 4 byte game ID, a 2 byte sequence number, then the payload.
+ * The game ID lets one connection carry several games at once.  For moves the sequence number is the number of moves already made in the game, so
+ * repeated or out of order moves are caught.  Encoding writes straight into a caller's buffer and decoding fills a reused {@link Message},
+ * so sending and receiving moves allocates nothing.
+ *
+ * @author Folz
+ *
+ */
+public final class GameProtocol {
+	/** Client asks for a game, payload is the game type and ply. Server answers with the game's ID and the client's role. */
+	public static final byte GAME   = 1;
+	/** A move, payload is the column. */
+	public static final byte MOVE   = 2;
+	/** The sender resigns the game. */
+	public static final byte RESIGN = 3;
+	/** Client asks for the moves so far, server answers with the move count and the moves packed two to a byte. */
+	public static final byte SYNC   = 4;
+	/** Game over, payload is the result. */
+	public static final byte END    = 5;
+	/** The last message was refused, payload is the reason. */
+	public static final byte ERROR  = 6;
+	/** Client asks to watch a game by its ID, or any featured game with ID 0.  Server answers with a SYNC of the moves so far, then passes on each move and the END. */
+	public static final byte WATCH  = 7;
+
+	//game types
+	public static final byte VS_CLIENT           = 0;
+	public static final byte VS_ENGINE_AS_RED    = 1;
+	public static final byte VS_ENGINE_AS_YELLOW = 2;
+	public static final byte WATCH_ENGINE        = 3;
+
+	//roles and results
+	public static final byte RED     = 'R';
+	public static final byte YELLOW  = 'Y';
+	public static final byte WATCHER = 'W';
+	public static final byte DRAW    = 'D';
+
+	//error reasons
+	public static final byte NOT_YOUR_TURN  = 1;
+	public static final byte ILLEGAL_MOVE   = 2;
+	public static final byte OUT_OF_SEQUENCE = 3;
+	public static final byte UNKNOWN_GAME   = 4;
+	public static final byte BAD_MESSAGE    = 5;
+
+	public static final int HEADER_BYTES   = 9;
+	public static final int MAX_PAYLOAD    = 32;
+	public static final int MAX_FRAME_BYTES = HEADER_BYTES + MAX_PAYLOAD;
+
+	private GameProtocol(){
+	}
+
+	/**
+	 * A decoded message.  Reused from one message to the next, so copy out anything that needs to be kept.
+	 */
+	public static class Message {
+		public byte opcode;
+		public int gameId;
+		public int sequence;
+		public final byte[] payload = new byte[MAX_PAYLOAD];
+		public int payloadLength;
+	}
+
+	private static void writeHeader(ByteBuffer out, byte opcode, int gameId, int sequence, int payloadLength){
+		out.putShort((short)(HEADER_BYTES - 2 + payloadLength));
+		out.put(opcode);
+		out.putInt(gameId);
+		out.putShort((short)sequence);
+	}
+
+	public static void writeGameRequest(ByteBuffer out, int sequence, byte gameType, int ply){
+		writeHeader(out, GAME, 0, sequence, 2);
+		out.put(gameType).put((byte)ply);
+	}
+
+	/**
+	 * Writes the server's answer to a game request.
+	 *
+	 * @param out Buffer to write to.
+	 * @param gameId ID of the new game.
+	 * @param requestSequence Sequence number of the request being answered.
+	 * @param role {@link #RED}, {@link #YELLOW} or {@link #WATCHER}.
+	 */
+	public static void writeGameStarted(ByteBuffer out, int gameId, int requestSequence, byte role){
+		writeHeader(out, GAME, gameId, requestSequence, 1);
+		out.put(role);
+	}
+
+	public static void writeMove(ByteBuffer out, int gameId, int sequence, int column){
+		writeHeader(out, MOVE, gameId, sequence, 1);
+		out.put((byte)column);
+	}
+
+	public static void writeResign(ByteBuffer out, int gameId, int sequence){
+		writeHeader(out, RESIGN, gameId, sequence, 0);
+	}
+
+	public static void writeWatchRequest(ByteBuffer out, int gameId){
+		writeHeader(out, WATCH, gameId, 0, 0);
+	}
+
+	public static void writeSyncRequest(ByteBuffer out, int gameId){
+		writeHeader(out, SYNC, gameId, 0, 0);
+	}
+
+	/**
+	 * Writes every move of a game so far.
+	 *
+	 * @param out Buffer to write to.
+	 * @param gameId ID of the game.
+	 * @param moves Columns of the moves in order.
+	 * @param moveCount Number of moves made.
+	 */
+	public static void writeSync(ByteBuffer out, int gameId, byte[] moves, int moveCount){
+		int packedBytes = (moveCount + 1) / 2;
+		writeHeader(out, SYNC, gameId, moveCount, 1 + packedBytes);
+		out.put((byte)moveCount);
+		for(int i = 0; i < moveCount; i += 2){
+			int second = i + 1 < moveCount? moves[i + 1] : 0;
+			out.put((byte)((moves[i] << 4) | second));
+		}
+	}
+
+	/**
+	 * Unpacks the moves of a decoded SYNC message.
+	 *
+	 * @param message Decoded SYNC message.
+	 * @param moves Array to fill with the columns of the moves, at least 42 long.
+	 * @return Number of moves.
+	 * @throws IOException if the move count doesn't match the length of the payload or is more than the array holds, or a column is off the board.
+	 */
+	public static int readSyncMoves(Message message, byte[] moves) throws IOException{
+		if(message.payloadLength < 1){
+			throw new IOException("Empty SYNC payload");
+		}
+		int moveCount = message.payload[0] & 0xFF;
+		if(message.payloadLength != 1 + (moveCount + 1) / 2 || moveCount > moves.length){
+			throw new IOException("Bad SYNC of " + moveCount + " moves in a " + message.payloadLength + " byte payload");
+		}
+		for(int i = 0; i < moveCount; ++i){
+			int packed = message.payload[1 + i / 2];
+			moves[i] = (byte)(i % 2 == 0? (packed >> 4) & 0xF : packed & 0xF);
+			if(moves[i] >= Board.NUM_COLUMNS){
+				throw new IOException("Bad column " + moves[i] + " in SYNC");
+			}
+		}
+		return moveCount;
+	}
+
+	public static void writeEnd(ByteBuffer out, int gameId, int sequence, byte result){
+		writeHeader(out, END, gameId, sequence, 1);
+		out.put(result);
+	}
+
+	public static void writeError(ByteBuffer out, int gameId, int sequence, byte reason){
+		writeHeader(out, ERROR, gameId, sequence, 1);
+		out.put(reason);
+	}
+
+	/**
+	 * Decodes the next message from a buffer, leaving the buffer untouched if the whole frame hasn't arrived yet.
+	 *
+	 * @param in Buffer in read mode.
+	 * @param message Message to fill.
+	 * @return True if a message was decoded.
+	 * @throws IOException if the frame length is impossible.
+	 */
+	public static boolean read(ByteBuffer in, Message message) throws IOException{
+		if(in.remaining() < 2){
+			return false;
+		}
+		int length = in.getShort(in.position()) & 0xFFFF;
+		if(length < HEADER_BYTES - 2 || length > MAX_FRAME_BYTES - 2){
+			throw new IOException("Bad frame length " + length);
+		}
+		if(in.remaining() < 2 + length){
+			return false;
+		}
+		in.position(in.position() + 2);
+		message.opcode        = in.get();
+		message.gameId        = in.getInt();
+		message.sequence      = in.getShort() & 0xFFFF;
+		message.payloadLength = length - (HEADER_BYTES - 2);
+		in.get(message.payload, 0, message.payloadLength);
+		return true;
+	}
+
+	/**
+	 * Decodes the next message from a blocking stream, waiting until it arrives.
+	 *
+	 * @param in Stream to read from.
+	 * @param message Message to fill.
+	 * @throws IOException if the stream fails or the frame length is impossible.
+	 */
+	public static void read(DataInputStream in, Message message) throws IOException{
+		int length = in.readUnsignedShort();
+		if(length < HEADER_BYTES - 2 || length > MAX_FRAME_BYTES - 2){
+			throw new IOException("Bad frame length " + length);
+		}
+		message.opcode        = in.readByte();
+		message.gameId        = in.readInt();
+		message.sequence      = in.readUnsignedShort();
+		message.payloadLength = length - (HEADER_BYTES - 2);
+		in.readFully(message.payload, 0, message.payloadLength);
+	}
+
+	/**
+	 * Sends the messages written into a buffer over a blocking stream, then empties the buffer for reuse.
+	 *
+	 * @param out Stream to write to.
+	 * @param buffer Heap buffer the messages were written into.
+	 * @throws IOException if the stream fails.
+	 */
+	public static void send(DataOutputStream out, ByteBuffer buffer) throws IOException{
+		out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+		out.flush();
+		buffer.clear();
+	}
+}
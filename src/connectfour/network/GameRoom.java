@@ -0,0 +1,79 @@
+package connectfour.network;
+
+import connectfour.analysis.Board;
+
+/**
+ * A single game hosted by the {@link GameServer}.  Either side may be a connected client or the computer player.
+ * 
+ * @author Folz
+ *
+ */
+class GameRoom {
+	final int id;
+	final ClientConnection red;    //null when the computer plays red
+	final ClientConnection yellow; //null when the computer plays yellow
+	final ClientConnection watcher;
+	final int redPly;
+	final int yellowPly;
+	final byte[] moves;
+	
+	Board board;
+	boolean engineThinking;
+	boolean finished;
+	SpectatorChannel spectators; //created when the first spectator arrives
+	
+	GameRoom(int id, ClientConnection red, int redPly, ClientConnection yellow, int yellowPly, ClientConnection watcher){
+		this.id        = id;
+		this.red       = red;
+		this.redPly    = redPly;
+		this.yellow    = yellow;
+		this.yellowPly = yellowPly;
+		this.watcher   = watcher;
+		this.moves     = new byte[Board.NUM_ROWS * Board.NUM_COLUMNS];
+		this.board     = new Board();
+	}
+	
+	/**
+	 * @return Player whose turn it is, or null if it is the computer's turn.
+	 */
+	ClientConnection playerToMove(){
+		return board.isRedTurn()? red : yellow;
+	}
+	
+	int plyToMove(){
+		return board.isRedTurn()? redPly : yellowPly;
+	}
+	
+	int moveCount(){
+		return board.getNumOfMoves();
+	}
+	
+	/**
+	 * Plays a move and records it.
+	 * 
+	 * @param column Column of the move, already checked to be legal.
+	 */
+	void play(int column){
+		moves[moveCount()] = (byte)column;
+		board = new Board(board, column);
+	}
+	
+	/**
+	 * @return True once someone has won or the board is full.
+	 */
+	boolean isOver(){
+		return Math.abs(board.getValue()) > 1_000 || moveCount() >= moves.length;
+	}
+	
+	/**
+	 * @return Result of the game as {@link GameProtocol#RED}, {@link GameProtocol#YELLOW} or {@link GameProtocol#DRAW}.
+	 */
+	byte result(){
+		double value = board.getValue();
+		return value > 1_000? GameProtocol.RED : value < -1_000? GameProtocol.YELLOW : GameProtocol.DRAW;
+	}
+	
+	boolean isEngineOnly(){
+		return red == null && yellow == null;
+	}
+}
@@ -0,0 +1,564 @@
+package connectfour.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.PositionCache;
+import connectfour.analysis.SearchScheduler;
+import connectfour.analysis.SearchScheduler.Priority;
+import connectfour.util.GameJournal;
+
+/**
+ * A headless server that hosts many games at once on a single selector thread.  Computer player moves are searched on a {@link SearchScheduler} and handed back
+ * to the selector thread when they finish, so no thread is ever tied up waiting on one client.
+ *
+ * Clients speak {@link GameProtocol}.  A GAME request starts a game against another client, against the computer as either color, or watching the computer
+ * play itself, and the server answers with the new game's ID.  A single connection may take part in any number of games at once.
+ *
+ * Any game can also be watched by any number of spectators, see {@link SpectatorChannel}.  The server can keep some featured games of the computer
+ * playing itself running for spectators who don't ask for a particular game.
+ *
+ * @author Folz
+ *
+ */
+public class GameServer {
+	public static final int DEFAULT_PORT = 44444;
+	private static final long RETRY_MILLIS = 100;
+	private static final int FEATURED_PLY  = 6;
+
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final SearchScheduler scheduler;
+	private final ConcurrentLinkedQueue<Runnable> selectorTasks; //work handed back to the selector thread
+	private final ArrayDeque<PendingMatch> waitingForOpponent;
+	private final ArrayDeque<GameRoom> waitingForEngine;         //rooms whose search was refused, tried again shortly
+	private final HashMap<Integer, GameRoom> liveRooms;
+	private final ArrayList<GameRoom> featuredRooms;
+	private final int featuredGames;
+	private final GameProtocol.Message incoming;
+	private GameJournal journal;
+	private volatile boolean running;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	private int nextRoomId = 1;
+	private volatile int activeGames;
+	private volatile long finishedGames;
+	private int nextFeatured;
+	private long droppedSpectatorFrames;
+
+	/**
+	 * A client waiting for another client to play against.
+	 */
+	private static class PendingMatch {
+		final ClientConnection connection;
+		final int requestSequence;
+
+		PendingMatch(ClientConnection connection, int requestSequence){
+			this.connection      = connection;
+			this.requestSequence = requestSequence;
+		}
+	}
+
+	/**
+	 * Opens the server socket.  Nothing is accepted until {@link #run()} is called.
+	 *
+	 * @param port Port to listen on.
+	 * @param scheduler Scheduler to run computer player searches on.
+	 * @throws IOException if the port can't be opened.
+	 */
+	public GameServer(int port, SearchScheduler scheduler) throws IOException{
+		this(port, scheduler, 0);
+	}
+
+	/**
+	 * Opens the server socket.  Nothing is accepted until {@link #run()} is called.
+	 *
+	 * @param port Port to listen on.
+	 * @param scheduler Scheduler to run computer player searches on.
+	 * @param featuredGames Number of games of the computer playing itself to keep running for spectators.
+	 * @throws IOException if the port can't be opened.
+	 */
+	public GameServer(int port, SearchScheduler scheduler, int featuredGames) throws IOException{
+		this.selector           = Selector.open();
+		this.serverChannel      = ServerSocketChannel.open();
+		this.scheduler          = scheduler;
+		this.selectorTasks      = new ConcurrentLinkedQueue<Runnable>();
+		this.waitingForOpponent = new ArrayDeque<PendingMatch>();
+		this.waitingForEngine   = new ArrayDeque<GameRoom>();
+		this.liveRooms          = new HashMap<Integer, GameRoom>();
+		this.featuredRooms      = new ArrayList<GameRoom>(featuredGames);
+		this.featuredGames      = featuredGames;
+		this.incoming           = new GameProtocol.Message();
+
+		serverChannel.bind(new InetSocketAddress(port), 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Serves clients until {@link #shutdown()} is called, then closes every connection.
+	 *
+	 * @throws IOException if the selector fails.
+	 */
+	public void run() throws IOException{
+		try{
+			serve();
+		} finally {
+			stopped.countDown();
+		}
+	}
+
+	private void serve() throws IOException{
+		running = true;
+		long lastRetry = System.currentTimeMillis();
+		for(int i = 0; i < featuredGames; ++i){
+			startFeaturedGame();
+		}
+
+		while(running){
+			selector.select(RETRY_MILLIS);
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()){
+				SelectionKey key = keys.next();
+				keys.remove();
+				if(!key.isValid()) continue;
+
+				if(key.isAcceptable()){
+					accept();
+				} else {
+					ClientConnection connection = (ClientConnection)key.attachment();
+					try{
+						if(key.isWritable()){
+							connection.flush();
+						}
+						if(key.isValid() && key.isReadable()){
+							if(!connection.read()){
+								disconnect(connection);
+								continue;
+							}
+							while(connection.isOpen() && connection.nextMessage(incoming)){
+								handleMessage(connection, incoming);
+							}
+						}
+					} catch(IOException e){
+						disconnect(connection);
+					}
+				}
+			}
+
+			Runnable task;
+			while((task = selectorTasks.poll()) != null){
+				task.run();
+			}
+			if(System.currentTimeMillis() - lastRetry >= RETRY_MILLIS){
+				lastRetry = System.currentTimeMillis();
+				for(int i = waitingForEngine.size(); i > 0; --i){
+					requestEngineMove(waitingForEngine.poll());
+				}
+			}
+		}
+
+		for(SelectionKey key : selector.keys()){
+			if(key.attachment() instanceof ClientConnection){
+				((ClientConnection)key.attachment()).close();
+			}
+		}
+		serverChannel.close();
+		selector.close();
+	}
+
+	/**
+	 * Asks the server to stop.  Safe to call from any thread; {@link #run()} returns once every connection is closed.
+	 */
+	public void shutdown(){
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Waits for {@link #run()} to return after {@link #shutdown()}, so no more moves are played or journaled.
+	 *
+	 * @param timeoutMillis Longest to wait.
+	 * @return True if the server stopped in time.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitStop(long timeoutMillis) throws InterruptedException{
+		return stopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void accept() throws IOException{
+		SocketChannel channel;
+		while((channel = serverChannel.accept()) != null){
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new ClientConnection(channel, key));
+		}
+	}
+
+	/**
+	 * Acts on a single message from a client.
+	 *
+	 * @param connection Client that sent the message.
+	 * @param message The message.
+	 */
+	private void handleMessage(ClientConnection connection, GameProtocol.Message message){
+		if(message.opcode == GameProtocol.WATCH){
+			watch(connection, message);
+			return;
+		}
+		GameRoom room = message.opcode == GameProtocol.GAME? null : connection.findRoom(message.gameId);
+		if(message.opcode != GameProtocol.GAME && room == null){
+			sendError(connection, message, GameProtocol.UNKNOWN_GAME);
+			return;
+		}
+
+		switch(message.opcode){
+			case GameProtocol.GAME:
+				if(message.payloadLength < 2){
+					sendError(connection, message, GameProtocol.BAD_MESSAGE);
+					break;
+				}
+				int ply = Math.max(1, Math.min(12, message.payload[1]));
+				switch(message.payload[0]){
+					case GameProtocol.VS_CLIENT:
+						matchWithOpponent(connection, message.sequence);
+						break;
+					case GameProtocol.VS_ENGINE_AS_RED:
+						startGame(new GameRoom(nextRoomId++, connection, 0, null, ply, null), message.sequence, 0);
+						break;
+					case GameProtocol.VS_ENGINE_AS_YELLOW:
+						startGame(new GameRoom(nextRoomId++, null, ply, connection, 0, null), 0, message.sequence);
+						break;
+					case GameProtocol.WATCH_ENGINE:
+						GameRoom watched = new GameRoom(nextRoomId++, null, ply, null, ply, connection);
+						join(watched, connection, GameProtocol.WATCHER, message.sequence);
+						startGame(watched, 0, 0);
+						break;
+					default:
+						sendError(connection, message, GameProtocol.BAD_MESSAGE);
+				}
+				break;
+			case GameProtocol.MOVE:
+				int column = message.payloadLength > 0? message.payload[0] : -1;
+				if(room.finished || room.playerToMove() != connection){
+					sendError(connection, message, GameProtocol.NOT_YOUR_TURN);
+				} else if(message.sequence != room.moveCount()){
+					sendError(connection, message, GameProtocol.OUT_OF_SEQUENCE);
+				} else if(column < 0 || column >= Board.NUM_COLUMNS || !room.board.getLegalColumns()[column]){
+					sendError(connection, message, GameProtocol.ILLEGAL_MOVE);
+				} else {
+					makeMove(room, column);
+				}
+				break;
+			case GameProtocol.RESIGN:
+				if(connection == room.red){
+					endGame(room, GameProtocol.YELLOW);
+				} else if(connection == room.yellow){
+					endGame(room, GameProtocol.RED);
+				}
+				break;
+			case GameProtocol.SYNC:
+				GameProtocol.writeSync(connection.output(), room.id, room.moves, room.moveCount());
+				connection.flushQuietly();
+				break;
+			default:
+				sendError(connection, message, GameProtocol.BAD_MESSAGE);
+		}
+	}
+
+	private void sendError(ClientConnection connection, GameProtocol.Message message, byte reason){
+		GameProtocol.writeError(connection.output(), message.gameId, message.sequence, reason);
+		connection.flushQuietly();
+	}
+
+	/**
+	 * Adds a connection to the spectators of a game, or of one of the featured games if it asked for game 0.
+	 *
+	 * @param connection The new spectator.
+	 * @param message Its WATCH request.
+	 */
+	private void watch(ClientConnection connection, GameProtocol.Message message){
+		GameRoom room;
+		if(message.gameId == 0 && !featuredRooms.isEmpty()){
+			room = featuredRooms.get(nextFeatured++ % featuredRooms.size());
+		} else {
+			room = liveRooms.get(message.gameId);
+		}
+		if(room == null){
+			sendError(connection, message, GameProtocol.UNKNOWN_GAME);
+			return;
+		}
+		if(room.spectators == null){
+			room.spectators = new SpectatorChannel(room);
+		}
+		room.spectators.subscribe(connection);
+	}
+
+	private void startFeaturedGame(){
+		GameRoom room = new GameRoom(nextRoomId++, null, FEATURED_PLY, null, FEATURED_PLY, null);
+		featuredRooms.add(room);
+		startGame(room, 0, 0);
+	}
+
+	private void matchWithOpponent(ClientConnection connection, int requestSequence){
+		PendingMatch opponent = waitingForOpponent.poll();
+		while(opponent != null && !opponent.connection.isOpen()){
+			opponent = waitingForOpponent.poll();
+		}
+		if(opponent == null || opponent.connection == connection){
+			if(opponent != null){
+				waitingForOpponent.addFirst(opponent);
+			}
+			waitingForOpponent.add(new PendingMatch(connection, requestSequence));
+		} else {
+			startGame(new GameRoom(nextRoomId++, opponent.connection, 0, connection, 0, null), opponent.requestSequence, requestSequence);
+		}
+	}
+
+	/**
+	 * Tells the clients of a new room the game has started, and starts the computer's search if it moves first.
+	 *
+	 * @param room The new room.
+	 * @param redRequest Sequence number of the red client's game request.
+	 * @param yellowRequest Sequence number of the yellow client's game request.
+	 */
+	private void startGame(GameRoom room, int redRequest, int yellowRequest){
+		++activeGames;
+		liveRooms.put(room.id, room);
+		if(room.red != null){
+			join(room, room.red, GameProtocol.RED, redRequest);
+		}
+		if(room.yellow != null){
+			join(room, room.yellow, GameProtocol.YELLOW, yellowRequest);
+		}
+		if(room.playerToMove() == null){
+			requestEngineMove(room);
+		}
+	}
+
+	private void join(GameRoom room, ClientConnection connection, byte role, int requestSequence){
+		connection.rooms.add(room);
+		GameProtocol.writeGameStarted(connection.output(), room.id, requestSequence, role);
+		connection.flushQuietly();
+	}
+
+	/**
+	 * Plays a move in a room, passes it on to everyone else in the room, and starts the computer's reply if it is the computer's turn.
+	 *
+	 * @param room Room to play in.
+	 * @param column Column of the move, already checked to be legal.
+	 */
+	private void makeMove(GameRoom room, int column){
+		ClientConnection mover = room.playerToMove();
+		int sequence = room.moveCount();
+		room.play(column);
+
+		sendMove(room.red, mover, room.id, sequence, column);
+		sendMove(room.yellow, mover, room.id, sequence, column);
+		sendMove(room.watcher, mover, room.id, sequence, column);
+		record(room, GameJournal.IN_PROGRESS);
+		if(room.spectators != null){
+			room.spectators.broadcastMove(sequence, column);
+		}
+
+		if(room.isOver()){
+			endGame(room, room.result());
+		} else if(room.playerToMove() == null){
+			requestEngineMove(room);
+		}
+	}
+
+	private void sendMove(ClientConnection connection, ClientConnection mover, int gameId, int sequence, int column){
+		if(connection != null && connection != mover && connection.isOpen()){
+			GameProtocol.writeMove(connection.output(), gameId, sequence, column);
+			connection.flushQuietly();
+		}
+	}
+
+	/**
+	 * Queues a search for the computer's move.  The result is handed back to the selector thread, and if the scheduler is too busy the room is tried again shortly.
+	 *
+	 * @param room Room where it is the computer's turn.
+	 */
+	private void requestEngineMove(GameRoom room){
+		if(room.finished || room.engineThinking) return;
+		try{
+			room.engineThinking = true;
+			scheduler.submit(room.id, room.board, room.plyToMove(), room.isEngineOnly()? Priority.PONDERING : Priority.HUMAN_WAITING, (search) -> {
+				selectorTasks.add(() -> {
+					room.engineThinking = false;
+					if(room.finished) return;
+					try{
+						makeMove(room, search.get());
+					} catch(InterruptedException | ExecutionException e){
+						endGame(room, GameProtocol.DRAW);
+					}
+				});
+				selector.wakeup();
+			});
+		} catch(RejectedExecutionException e){
+			room.engineThinking = false;
+			waitingForEngine.add(room);
+		}
+	}
+
+	/**
+	 * Tells everyone in a room the game is over and frees the room.
+	 *
+	 * @param room Room whose game has ended.
+	 * @param result {@link GameProtocol#RED}, {@link GameProtocol#YELLOW} or {@link GameProtocol#DRAW}.
+	 */
+	private void endGame(GameRoom room, byte result){
+		room.finished = true;
+		record(room, result); //results use the same letters in the journal
+		sendEnd(room.red, room, result);
+		sendEnd(room.yellow, room, result);
+		sendEnd(room.watcher, room, result);
+		if(room.spectators != null){
+			room.spectators.broadcastEnd(result);
+			droppedSpectatorFrames += room.spectators.getFramesDropped();
+		}
+		scheduler.releaseGame(room.id);
+		liveRooms.remove(room.id);
+		--activeGames;
+		++finishedGames;
+		if(featuredRooms.remove(room) && running){
+			startFeaturedGame();
+		}
+	}
+
+	private void sendEnd(ClientConnection connection, GameRoom room, byte result){
+		if(connection != null){
+			connection.rooms.remove(room);
+			if(connection.isOpen()){
+				GameProtocol.writeEnd(connection.output(), room.id, room.moveCount(), result);
+				connection.flushQuietly();
+			}
+		}
+	}
+
+	private void record(GameRoom room, byte status){
+		if(journal == null) return;
+		try{
+			journal.append(room.id, status, room.moves, room.moveCount());
+		} catch(IOException e){
+			System.err.println("Stopped journaling games: " + e.getMessage());
+			journal = null;
+		}
+	}
+
+	/**
+	 * Closes a client, ending each of its games in the opponent's favor.
+	 *
+	 * @param connection Client that went away.
+	 */
+	private void disconnect(ClientConnection connection){
+		connection.close();
+		for(int i = connection.rooms.size() - 1; i >= 0; --i){
+			GameRoom room = connection.rooms.get(i);
+			if(connection == room.red){
+				endGame(room, GameProtocol.YELLOW);
+			} else if(connection == room.yellow){
+				endGame(room, GameProtocol.RED);
+			} else if(room.isEngineOnly() && !featuredRooms.contains(room)){
+				endGame(room, GameProtocol.DRAW); //nobody is left to watch the computer play itself
+			}
+		}
+	}
+
+	public int getActiveGames(){
+		return activeGames;
+	}
+
+	public long getFinishedGames(){
+		return finishedGames;
+	}
+
+	/**
+	 * @return Moves not sent to spectators who had fallen behind, over every finished game.
+	 */
+	public long getDroppedSpectatorFrames(){
+		return droppedSpectatorFrames;
+	}
+
+	/**
+	 * Sets the journal every move and result is recorded in.  Must be called before {@link #run()}.  Games are numbered on from the highest ID
+	 * already in the journal, so a restarted server doesn't reuse the IDs of games recorded before.
+	 *
+	 * @param journal Journal to record games in, or null to not record them.
+	 */
+	public void setJournal(GameJournal journal){
+		this.journal = journal;
+		if(journal != null){
+			nextRoomId = Math.max(nextRoomId, journal.getHighestGameId() + 1);
+		}
+	}
+
+	public int getConnectionCount(){
+		return selector.keys().size() - 1;
+	}
+
+	/**
+	 * Starts a server from the command line.
+	 *
+	 * @param args Optional port, number of search threads, and number of featured games for spectators.  Games are journaled to the directory named by
+	 *             the connectfour.journal.dir system property, if it is set.
+	 * @throws IOException if the server can't be started.
+	 */
+	public static void main(String... args) throws IOException{
+		int port    = args.length > 0? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int workers = args.length > 1? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		SearchScheduler scheduler = new SearchScheduler(workers, 10_000, 60_000);
+		PositionCache cache = PositionCache.fromSystemProperties();
+		scheduler.setPositionCache(cache);
+		int featured = args.length > 2? Integer.parseInt(args[2]) : 0;
+		GameServer server = new GameServer(port, scheduler, featured);
+		String journalDirectory = System.getProperty("connectfour.journal.dir");
+		GameJournal journal = journalDirectory == null? null : new GameJournal(Paths.get(journalDirectory));
+		server.setJournal(journal);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.shutdown();
+			try{
+				if(!server.awaitStop(5_000)){
+					System.err.println("The server didn't stop in time, games still being played may not be journaled");
+				}
+				scheduler.shutdown(5_000); //searches still running write to the cache, so it is only saved after them
+				if(PositionCache.getSnapshotPath() != null){
+					cache.saveSnapshot(PositionCache.getSnapshotPath());
+				}
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			} catch(IOException e){
+				System.err.println("Couldn't save the position cache: " + e.getMessage());
+			}
+			try{
+				if(journal != null){
+					journal.close();
+				}
+			} catch(IOException e){
+				System.err.println("Couldn't close the game journal: " + e.getMessage());
+			}
+			System.out.println(cache);
+		}));
+		System.out.println("Serving games on port " + port);
+		server.run();
+	}
+}
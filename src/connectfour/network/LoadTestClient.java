@@ -0,0 +1,232 @@
+package connectfour.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import connectfour.analysis.Board;
+
+/**
+ * Opens many connections to a {@link GameServer} or {@link EngineServer} and has them play random moves against each other or the computer, then reports how the server held up.
+ *
+ * @author Folz
+ *
+ */
+public class LoadTestClient {
+	private static final int MAX_SAMPLES = 1 << 20;
+
+	private final Random random = new Random();
+	private final long[] latencySamples = new long[MAX_SAMPLES];
+	private int sampleCount;
+	private long movesPlayed;
+	private long gamesFinished;
+	private boolean requeue = true;
+	private final boolean idle;
+	private final boolean watch;
+
+	public LoadTestClient(){
+		this(false, false);
+	}
+
+	/**
+	 * @param idle True to have every client start its games as red against the computer and then never move, to measure what idle games cost the server.
+	 * @param watch True to have every client watch the server's featured games instead of playing.
+	 */
+	public LoadTestClient(boolean idle, boolean watch){
+		this.idle  = idle;
+		this.watch = watch;
+	}
+
+	/**
+	 * One simulated client, playing one or more games over a single connection.
+	 */
+	private class SimulatedClient {
+		final ClientConnection connection;
+		final byte gameType;
+		final ArrayList<SimulatedGame> games = new ArrayList<SimulatedGame>();
+		int requests;
+
+		SimulatedClient(ClientConnection connection, byte gameType){
+			this.connection = connection;
+			this.gameType   = gameType;
+		}
+
+		void requestGame(){
+			if(watch){
+				GameProtocol.writeWatchRequest(connection.output(), 0);
+			} else {
+				GameProtocol.writeGameRequest(connection.output(), requests++, gameType, 1);
+			}
+			connection.flushQuietly();
+		}
+
+		void handle(GameProtocol.Message message){
+			SimulatedGame game = null;
+			for(SimulatedGame g : games){
+				if(g.id == message.gameId) game = g;
+			}
+
+			switch(message.opcode){
+				case GameProtocol.GAME:
+					game = new SimulatedGame(message.gameId, message.payload[0] == GameProtocol.RED);
+					games.add(game);
+					if(game.isRed && !idle) playRandomMove(game);
+					break;
+				case GameProtocol.MOVE:
+					if(watch) ++movesPlayed;
+					if(game == null) break;
+					if(game.moveSentAt != 0){
+						recordLatency(System.nanoTime() - game.moveSentAt);
+						game.moveSentAt = 0;
+					}
+					game.board = new Board(game.board, message.payload[0]);
+					if(game.board.isRedTurn() == game.isRed && Math.abs(game.board.getValue()) < 1_000 && game.board.getNumOfMoves() < Board.NUM_ROWS * Board.NUM_COLUMNS){
+						playRandomMove(game);
+					}
+					break;
+				case GameProtocol.END:
+					if(game != null) games.remove(game);
+					++gamesFinished;
+					if(requeue) requestGame();
+					break;
+				default:
+					//refusals don't matter to the load test
+			}
+		}
+
+		void playRandomMove(SimulatedGame game){
+			boolean[] legal = game.board.getLegalColumns();
+			int column;
+			do{
+				column = random.nextInt(Board.NUM_COLUMNS);
+			} while(!legal[column]);
+			int sequence = game.board.getNumOfMoves();
+			game.board = new Board(game.board, column);
+			++movesPlayed;
+			game.moveSentAt = System.nanoTime();
+			GameProtocol.writeMove(connection.output(), game.id, sequence, column);
+			connection.flushQuietly();
+		}
+	}
+
+	/**
+	 * One game being played by a simulated client.
+	 */
+	private static class SimulatedGame {
+		final int id;
+		final boolean isRed;
+		Board board = new Board();
+		long moveSentAt;
+
+		SimulatedGame(int id, boolean isRed){
+			this.id    = id;
+			this.isRed = isRed;
+		}
+	}
+
+	private void recordLatency(long nanos){
+		latencySamples[sampleCount++ & (MAX_SAMPLES - 1)] = nanos;
+	}
+
+	/**
+	 * Connects the clients and plays until the time is up.
+	 *
+	 * @param address Server to connect to.
+	 * @param connections Number of connections to open.
+	 * @param engineGames True to play against the computer, false to play against each other.
+	 * @param gamesPerConnection Number of games each connection plays at the same time.
+	 * @param seconds How long to play for.
+	 * @throws IOException if the connections fail.
+	 */
+	public void run(InetSocketAddress address, int connections, boolean engineGames, int gamesPerConnection, int seconds) throws IOException{
+		GameProtocol.Message message = new GameProtocol.Message();
+		Selector selector = Selector.open();
+		for(int i = 0; i < connections; ++i){
+			SocketChannel channel = SocketChannel.open(address);
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			byte gameType = idle? GameProtocol.VS_ENGINE_AS_RED : engineGames? (i % 2 == 0? GameProtocol.VS_ENGINE_AS_RED : GameProtocol.VS_ENGINE_AS_YELLOW) : GameProtocol.VS_CLIENT;
+			SimulatedClient client = new SimulatedClient(new ClientConnection(channel, key), gameType);
+			key.attach(client);
+			for(int g = 0; g < gamesPerConnection; ++g){
+				client.requestGame();
+			}
+		}
+		System.out.println("Connected " + connections + " clients" + (idle? ", holding their games idle" : watch? ", watching featured games" : ""));
+
+		long startTime = System.currentTimeMillis();
+		long endTime   = startTime + seconds * 1_000L;
+		while(System.currentTimeMillis() < endTime){
+			selector.select(100);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()){
+				SelectionKey key = keys.next();
+				keys.remove();
+				SimulatedClient client = (SimulatedClient)key.attachment();
+				try{
+					if(key.isValid() && key.isWritable()){
+						client.connection.flush();
+					}
+					if(key.isValid() && key.isReadable()){
+						if(!client.connection.read()){
+							client.connection.close();
+							continue;
+						}
+						while(client.connection.isOpen() && client.connection.nextMessage(message)){
+							client.handle(message);
+						}
+					}
+				} catch(IOException e){
+					client.connection.close();
+				}
+			}
+			requeue = System.currentTimeMillis() < endTime;
+		}
+		double elapsed = (System.currentTimeMillis() - startTime) / 1_000.0;
+
+		for(SelectionKey key : selector.keys()){
+			((SimulatedClient)key.attachment()).connection.close();
+		}
+		selector.close();
+		report(connections, elapsed);
+	}
+
+	private void report(int connections, double elapsed){
+		int samples = Math.min(sampleCount, MAX_SAMPLES);
+		long[] sorted = Arrays.copyOf(latencySamples, samples);
+		Arrays.sort(sorted);
+
+		System.out.println(String.format("%d connections, %.1f s: %d games (%.1f/s), %d moves (%.1f/s)",
+				connections, elapsed, gamesFinished, gamesFinished / elapsed, movesPlayed, movesPlayed / elapsed));
+		if(samples > 0){
+			System.out.println(String.format("Reply latency ms: p50 %.2f  p99 %.2f  max %.2f",
+					sorted[samples / 2] / 1e6, sorted[(int)(samples * 0.99)] / 1e6, sorted[samples - 1] / 1e6));
+		}
+	}
+
+	/**
+	 * Runs a load test from the command line.
+	 *
+	 * @param args Optional host, port, connection count, "human", "engine", "idle" or "watch", games per connection, and seconds to run.
+	 * @throws IOException if the connections fail.
+	 */
+	public static void main(String... args) throws IOException{
+		String host      = args.length > 0? args[0] : "localhost";
+		int port         = args.length > 1? Integer.parseInt(args[1]) : GameServer.DEFAULT_PORT;
+		int connections  = args.length > 2? Integer.parseInt(args[2]) : 2_000;
+		boolean engine   = args.length > 3 && args[3].equals("engine");
+		boolean idle     = args.length > 3 && args[3].equals("idle");
+		boolean watch    = args.length > 3 && args[3].equals("watch");
+		int games        = args.length > 4? Integer.parseInt(args[4]) : 1;
+		int seconds      = args.length > 5? Integer.parseInt(args[5]) : 10;
+
+		new LoadTestClient(idle, watch).run(new InetSocketAddress(host, port), connections, engine, games, seconds);
+	}
+}
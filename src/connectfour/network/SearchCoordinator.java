@@ -0,0 +1,342 @@
+package connectfour.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.ComputerPlayer;
+import connectfour.analysis.SearchInfo;
+
+/**
+ * Splits the search of one position between several {@link SearchWorker} processes, which may be on other machines.
+ *
+ * The moves at the root are split into one job each, and if that leaves too few jobs to keep every worker busy, the replies to those moves are split
+ * as well, and so on.  Each worker connection takes the next job whenever it finishes one, so fast and slow workers even out.  Once every job is
+ * back the scores are combined up the split tree with minimax, and the best line is the chain of best moves down the split tree followed by the line
+ * the worker found below it.
+ *
+ * Workers must score boards the same way as the coordinator: one whose {@link Board#getEvaluatorVersion() evaluator version} differs is refused
+ * when connecting.  Local workers are started with this process's connectfour system properties, so they load the same weights.
+ *
+ * A worker that fails, or takes longer than the connectfour.worker.timeout system property (milliseconds, 10 minutes by default) to answer a job,
+ * is dropped and its job goes back to the others.
+ *
+ * @author Folz
+ *
+ */
+public class SearchCoordinator implements Closeable {
+	private static final int JOBS_PER_WORKER = 4;
+	private static final int REPLY_TIMEOUT_MILLIS = Integer.getInteger("connectfour.worker.timeout", 600_000);
+	private static final long POLL_MILLIS = 50;
+
+	private final ArrayList<WorkerConnection> workers;
+
+	/**
+	 * A connection to one worker.  Only used by the thread feeding that worker jobs.
+	 */
+	private static class WorkerConnection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		WorkerConnection(InetSocketAddress address) throws IOException{
+			socket = new Socket();
+			socket.connect(address);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(REPLY_TIMEOUT_MILLIS); //a hung worker gives its job back rather than stalling the search
+			in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			int version = in.readInt();
+			if(version != Board.getEvaluatorVersion()){
+				socket.close();
+				throw new IOException("Worker " + address + " has evaluator version " + version + ", this is version " + Board.getEvaluatorVersion());
+			}
+		}
+	}
+
+	/**
+	 * A position in the split tree.  Leaves are sent to the workers, and the rest are scored from their children.
+	 */
+	private static class Split {
+		final Board board;
+		final int move;
+		final int ply;
+		final ArrayList<Split> children = new ArrayList<Split>();
+		SearchInfo result;
+		double score;
+		int[] line;
+
+		Split(Board board, int move, int ply){
+			this.board = board;
+			this.move  = move;
+			this.ply   = ply;
+		}
+
+		boolean isGameOver(){
+			return Math.abs(board.getValue()) > 1_000 || board.generateMoveList().isEmpty();
+		}
+	}
+
+	/**
+	 * Connects to every worker.
+	 *
+	 * @param addresses Workers to split searches between.
+	 * @throws IOException if a worker can't be reached.
+	 */
+	public SearchCoordinator(List<InetSocketAddress> addresses) throws IOException{
+		this.workers = new ArrayList<WorkerConnection>(addresses.size());
+		try{
+			for(InetSocketAddress address : addresses){
+				workers.add(new WorkerConnection(address));
+			}
+		} catch(IOException e){
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Searches a position to the given depth on the workers.
+	 *
+	 * @param board State of the board to analyze.
+	 * @param ply Depth to analyze to, at least 1.
+	 * @return Exact score of the position and the line both sides are expected to play, starting with the best move.
+	 * @throws IOException if every worker failed before the search was finished.
+	 */
+	public SearchInfo analyze(Board board, int ply) throws IOException{
+		long startTime = System.currentTimeMillis();
+		Split root = new Split(board, -1, ply);
+		ArrayList<Split> leaves = new ArrayList<Split>();
+		leaves.add(root);
+		do{
+			leaves = split(leaves);
+		} while(leaves.size() < workers.size() * JOBS_PER_WORKER && canSplit(leaves));
+
+		LinkedBlockingQueue<Split> jobs = new LinkedBlockingQueue<Split>(leaves);
+		AtomicInteger unfinished = new AtomicInteger(leaves.size());
+		ArrayList<Thread> threads = new ArrayList<Thread>(workers.size());
+		for(WorkerConnection worker : workers){
+			Thread thread = new Thread(() -> feed(worker, jobs, unfinished), "search-coordinator-feeder");
+			thread.start();
+			threads.add(thread);
+		}
+		for(Thread thread : threads){
+			try{
+				thread.join();
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for workers", e);
+			}
+		}
+		if(unfinished.get() > 0){
+			throw new IOException(unfinished.get() + " jobs were left when the last worker failed");
+		}
+
+		long nodes = merge(root);
+		return new SearchInfo(ply, root.line.length > 0? root.line[0] : -1, root.score, root.line, nodes, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Splits each leaf into the positions after each of its moves.  Leaves whose game is over, or with only one ply left, stay as they are.
+	 */
+	private static ArrayList<Split> split(ArrayList<Split> leaves){
+		ArrayList<Split> next = new ArrayList<Split>();
+		for(Split leaf : leaves){
+			if(leaf.ply <= 1 || leaf.isGameOver()){
+				next.add(leaf);
+				continue;
+			}
+			for(int move : leaf.board.generateMoveList()){
+				Split child = new Split(new Board(leaf.board, move), move, leaf.ply - 1);
+				leaf.children.add(child);
+				next.add(child);
+			}
+		}
+		return next;
+	}
+
+	private static boolean canSplit(ArrayList<Split> leaves){
+		for(Split leaf : leaves){
+			if(leaf.ply > 1 && !leaf.isGameOver()){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sends jobs to a worker until every job is finished, not just until the queue is empty: a job another worker is still on may come back on the
+	 * queue if that worker fails.  If this worker fails its job goes back on the queue for the others.
+	 */
+	private static void feed(WorkerConnection worker, LinkedBlockingQueue<Split> jobs, AtomicInteger unfinished){
+		while(unfinished.get() > 0){
+			Split job;
+			try{
+				job = jobs.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException e){
+				return;
+			}
+			if(job == null) continue;
+
+			try{
+				long jobStart = System.currentTimeMillis();
+				SearchWorker.writeJob(worker.out, job.board, job.ply);
+				job.result = SearchWorker.readResult(worker.in, job.ply, System.currentTimeMillis() - jobStart);
+				unfinished.decrementAndGet();
+			} catch(IOException e){
+				jobs.add(job);
+				System.err.println("Lost worker " + worker.socket.getRemoteSocketAddress() + ": " + e);
+				try{
+					worker.socket.close(); //a late reply must not be read as the answer to another job
+				} catch(IOException closing){
+					//dropping the worker anyway
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Scores the split tree from the leaves up, choosing the best child for whoever is to move at each split.
+	 *
+	 * @return Number of positions the workers visited below this split.
+	 */
+	private static long merge(Split split){
+		if(split.children.isEmpty()){
+			split.score = split.result.getScore();
+			split.line  = split.result.getPrincipalVariation();
+			return split.result.getNodes();
+		}
+
+		long nodes = 1;
+		Split best = null;
+		for(Split child : split.children){
+			nodes += merge(child);
+			if(best == null
+					|| (split.board.isRedTurn() && child.score > best.score)
+					|| (!split.board.isRedTurn() && child.score < best.score)){
+				best = child;
+			}
+		}
+		split.score = best.score;
+		split.line  = new int[best.line.length + 1];
+		split.line[0] = best.move;
+		System.arraycopy(best.line, 0, split.line, 1, best.line.length);
+		return nodes;
+	}
+
+	@Override
+	public void close(){
+		for(WorkerConnection worker : workers){
+			try{
+				worker.socket.close();
+			} catch(IOException e){
+				//closing anyway
+			}
+		}
+	}
+
+	/**
+	 * Starts worker processes on this machine, one per port from the first port up.  The caller should destroy them when done.  Every connectfour
+	 * system property of this process, such as the evaluation weights and the table sizes, is passed on to them.
+	 *
+	 * @param count Number of workers.
+	 * @param firstPort Port of the first worker.
+	 * @return The worker processes.
+	 * @throws IOException if a process can't be started.
+	 */
+	public static List<Process> startLocalWorkers(int count, int firstPort) throws IOException{
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ArrayList<Process> processes = new ArrayList<Process>(count);
+		for(int i = 0; i < count; ++i){
+			ArrayList<String> command = new ArrayList<String>();
+			command.add(java);
+			for(String name : System.getProperties().stringPropertyNames()){
+				if(name.startsWith("connectfour.")){
+					command.add("-D" + name + "=" + System.getProperty(name));
+				}
+			}
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(SearchWorker.class.getName());
+			command.add(Integer.toString(firstPort + i));
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT);
+			processes.add(builder.start());
+		}
+		return processes;
+	}
+
+	/**
+	 * Connects to workers, retrying for a while in case they are still starting up.
+	 */
+	private static SearchCoordinator connect(List<InetSocketAddress> addresses) throws IOException, InterruptedException{
+		long giveUp = System.currentTimeMillis() + 10_000;
+		while(true){
+			try{
+				return new SearchCoordinator(addresses);
+			} catch(ConnectException e){
+				if(System.currentTimeMillis() > giveUp) throw e;
+				Thread.sleep(200);
+			}
+		}
+	}
+
+	/**
+	 * Analyzes a position from the command line, then checks the result against a search in this process.
+	 *
+	 * @param args Depth, the moves leading to the position as digits (or "-" for the empty board), then either host:port of each worker, or
+	 *             "local" and a number of worker processes to start on this machine.
+	 * @throws Exception if the workers fail.
+	 */
+	public static void main(String... args) throws Exception{
+		int ply      = args.length > 0? Integer.parseInt(args[0]) : 8;
+		Board board  = Board.fromMoves(args.length > 1 && !args[1].equals("-")? args[1] : "");
+		ArrayList<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		List<Process> processes = new ArrayList<Process>();
+
+		if(args.length < 3 || args[2].equals("local")){
+			int count = args.length > 3? Integer.parseInt(args[3]) : 2;
+			processes = startLocalWorkers(count, SearchWorker.DEFAULT_PORT);
+			for(int i = 0; i < count; ++i){
+				addresses.add(new InetSocketAddress("localhost", SearchWorker.DEFAULT_PORT + i));
+			}
+		} else {
+			for(int i = 2; i < args.length; ++i){
+				String[] hostPort = args[i].split(":");
+				addresses.add(new InetSocketAddress(hostPort[0], hostPort.length > 1? Integer.parseInt(hostPort[1]) : SearchWorker.DEFAULT_PORT));
+			}
+		}
+
+		try(SearchCoordinator coordinator = connect(addresses)){
+			SearchInfo distributed = coordinator.analyze(board, ply);
+			System.out.println(addresses.size() + " workers: " + distributed);
+
+			long startTime = System.currentTimeMillis();
+			ComputerPlayer local = new ComputerPlayer(board.isRedTurn());
+			double[] scores = local.getMoveScores(board, ply);
+			int localMove   = local.selectBestMove(scores);
+			System.out.println("this process: move " + localMove + " score " + scores[localMove] + " time " + (System.currentTimeMillis() - startTime));
+			if(Math.abs(scores[localMove] - distributed.getScore()) > 1e-4){ //transposition tables keep scores as floats
+				System.out.println("Scores differ!");
+			}
+		} finally {
+			for(Process process : processes){
+				process.destroy();
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package connectfour.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.ComputerPlayer;
+import connectfour.analysis.SearchInfo;
+import connectfour.analysis.TranspositionTable;
+
+/**
+ * A process that searches positions handed to it by a {@link SearchCoordinator}.
+ *
+ * On connecting, the worker sends its {@link Board#getEvaluatorVersion() evaluator version}, so a coordinator scoring boards with other weights can
+ * refuse it rather than mix two evaluations.  Each coordinator connection then sends one job at a time: a position as its {@link Board#getPositionKey() key} and a depth.  The worker answers with
+ * the position's exact score, the number of positions it visited, and the line it expects.  Every connection is served on its own thread with its
+ * own transposition table, sized by the usual system properties.
+ *
+ * @author Folz
+ *
+ */
+public class SearchWorker {
+	public static final int DEFAULT_PORT = 44445;
+
+	private final ServerSocket serverSocket;
+	private volatile boolean running;
+
+	/**
+	 * Opens the server socket.  Nothing is accepted until {@link #run()} is called.
+	 *
+	 * @param port Port to listen on.
+	 * @throws IOException if the port can't be opened.
+	 */
+	public SearchWorker(int port) throws IOException{
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Serves coordinators until {@link #shutdown()} is called.
+	 *
+	 * @throws IOException if the server socket fails.
+	 */
+	public void run() throws IOException{
+		running = true;
+		while(running){
+			Socket socket;
+			try{
+				socket = serverSocket.accept();
+			} catch(IOException e){
+				if(!running) break;
+				throw e;
+			}
+			socket.setTcpNoDelay(true);
+			Thread thread = new Thread(() -> serve(socket), "search-worker-connection");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public void shutdown(){
+		running = false;
+		try{
+			serverSocket.close();
+		} catch(IOException e){
+			//closing anyway
+		}
+	}
+
+	private void serve(Socket socket){
+		ComputerPlayer player = new ComputerPlayer(true); //color doesn't matter, searchPosition scores for whoever is to move
+		player.setTranspositionTable(TranspositionTable.fromSystemProperties());
+		try(Socket coordinator = socket){
+			DataInputStream in   = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+			out.writeInt(Board.getEvaluatorVersion());
+			out.flush();
+			while(running){
+				long key  = in.readLong();
+				int ply   = in.readUnsignedByte();
+				writeResult(out, player.searchPosition(Board.fromPositionKey(key), ply));
+			}
+		} catch(EOFException e){
+			//coordinator is done
+		} catch(IOException | IllegalArgumentException e){
+			System.err.println("Dropping coordinator " + socket.getRemoteSocketAddress() + ": " + e);
+		}
+	}
+
+	/**
+	 * Sends a job to a worker.
+	 *
+	 * @param out Stream to the worker.
+	 * @param board Position to search.
+	 * @param ply Depth to search it to.
+	 * @throws IOException if the stream fails.
+	 */
+	static void writeJob(DataOutputStream out, Board board, int ply) throws IOException{
+		out.writeLong(board.getPositionKey());
+		out.writeByte(ply);
+		out.flush();
+	}
+
+	private static void writeResult(DataOutputStream out, SearchInfo result) throws IOException{
+		int[] line = result.getPrincipalVariation();
+		out.writeDouble(result.getScore());
+		out.writeLong(result.getNodes());
+		out.writeByte(line.length);
+		for(int move : line){
+			out.writeByte(move);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a worker's answer to a job.
+	 *
+	 * @param in Stream from the worker.
+	 * @param ply Depth the job was searched to.
+	 * @param elapsedMillis Time the job took, as seen by the caller.
+	 * @return The worker's result.
+	 * @throws IOException if the stream fails.
+	 */
+	static SearchInfo readResult(DataInputStream in, int ply, long elapsedMillis) throws IOException{
+		double score = in.readDouble();
+		long nodes   = in.readLong();
+		int[] line   = new int[in.readUnsignedByte()];
+		for(int i = 0; i < line.length; ++i){
+			line[i] = in.readUnsignedByte();
+		}
+		return new SearchInfo(ply, line.length > 0? line[0] : -1, score, line, nodes, elapsedMillis);
+	}
+
+	/**
+	 * Starts a worker from the command line.
+	 *
+	 * @param args Optional port.
+	 * @throws IOException if the worker can't be started.
+	 */
+	public static void main(String... args) throws IOException{
+		int port = args.length > 0? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		SearchWorker worker = new SearchWorker(port);
+		System.out.println("Waiting for coordinators on port " + port);
+		worker.run();
+	}
+}
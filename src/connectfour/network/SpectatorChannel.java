@@ -0,0 +1,120 @@
+package connectfour.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Passes the moves of one game on to everyone watching it.
+ *
+ * Each move is encoded once into a direct buffer that every spectator shares, and each spectator's socket is written from its own duplicate of that
+ * buffer, so the message is never copied per viewer.  A spectator that falls too far behind stops being sent moves rather than holding up the game or
+ * growing its backlog without bound; once its backlog has drained it is sent a snapshot of the whole game and carries on from there.  Late joiners
+ * are sent the same snapshot.
+ *
+ * Only used from the {@link GameServer}'s selector thread.
+ *
+ * @author Folz
+ *
+ */
+class SpectatorChannel {
+	private static final int MAX_BACKLOG_BYTES    = 4 * 1024; //stop sending moves past this
+	private static final int RESUME_BACKLOG_BYTES = 512;      //catch up with a snapshot once back under this
+
+	private final GameRoom room;
+	private final ByteBuffer frame;
+	private final ArrayList<Spectator> spectators;
+	private long framesDropped;
+
+	/**
+	 * One spectator, and whether it has missed moves that a snapshot must make up for.
+	 */
+	private static class Spectator {
+		final ClientConnection connection;
+		boolean behind;
+
+		Spectator(ClientConnection connection){
+			this.connection = connection;
+		}
+	}
+
+	SpectatorChannel(GameRoom room){
+		this.room       = room;
+		this.frame      = ByteBuffer.allocateDirect(GameProtocol.MAX_FRAME_BYTES);
+		this.spectators = new ArrayList<Spectator>();
+	}
+
+	/**
+	 * Starts sending a connection the game's moves, beginning with a snapshot of the moves so far.
+	 *
+	 * @param connection The new spectator.
+	 */
+	void subscribe(ClientConnection connection){
+		spectators.add(new Spectator(connection));
+		sendSnapshot(connection);
+	}
+
+	/**
+	 * Sends a move that has just been played to every spectator.
+	 *
+	 * @param sequence Number of moves made before this one.
+	 * @param column Column of the move.
+	 */
+	void broadcastMove(int sequence, int column){
+		if(spectators.isEmpty()) return;
+		frame.clear();
+		GameProtocol.writeMove(frame, room.id, sequence, column);
+		frame.flip();
+		broadcast(true);
+	}
+
+	/**
+	 * Sends the result to every spectator.  Every spectator is sent this, however far behind, so none of them is left waiting on a finished game; one
+	 * whose write buffer has no room left even for the result is disconnected instead, which tells it just as surely that it won't hear more.
+	 *
+	 * @param result {@link GameProtocol#RED}, {@link GameProtocol#YELLOW} or {@link GameProtocol#DRAW}.
+	 */
+	void broadcastEnd(byte result){
+		if(spectators.isEmpty()) return;
+		frame.clear();
+		GameProtocol.writeEnd(frame, room.id, room.moveCount(), result);
+		frame.flip();
+		broadcast(false);
+		spectators.clear();
+	}
+
+	private void broadcast(boolean mayDrop){
+		for(int i = spectators.size() - 1; i >= 0; --i){
+			Spectator spectator = spectators.get(i);
+			ClientConnection connection = spectator.connection;
+			if(!connection.isOpen()){
+				spectators.set(i, spectators.get(spectators.size() - 1));
+				spectators.remove(spectators.size() - 1);
+				continue;
+			}
+
+			if(spectator.behind && connection.getBacklog() <= RESUME_BACKLOG_BYTES){
+				spectator.behind = false;
+				sendSnapshot(connection); //already includes the move being broadcast
+				if(mayDrop) continue;
+			}
+			if(spectator.behind && mayDrop){
+				++framesDropped;
+			} else if(!connection.offer(frame.duplicate(), mayDrop? MAX_BACKLOG_BYTES : Integer.MAX_VALUE)){
+				spectator.behind = true;
+				++framesDropped;
+				if(!mayDrop){
+					connection.close();
+				}
+			}
+		}
+	}
+
+	private void sendSnapshot(ClientConnection connection){
+		GameProtocol.writeSync(connection.output(), room.id, room.moves, room.moveCount());
+		connection.flushQuietly();
+	}
+
+	long getFramesDropped(){
+		return framesDropped;
+	}
+}
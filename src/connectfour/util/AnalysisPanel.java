@@ -0,0 +1,292 @@
+package connectfour.util;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.ComputerPlayer;
+import connectfour.analysis.SearchInfo;
+import connectfour.analysis.TranspositionTable;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+
+/**
+ * Analyzes the position on the board in the background and shows how it stands: a bar for who is ahead, the score of every column and the line the
+ * search expects.
+ *
+ * One analysis thread searches the current position one ply deeper at a time, scoring each column with its own full window search.  A new position
+ * stops the search in progress and starts over.  Results never go straight to the screen: the analysis thread only replaces the latest result, and a
+ * timer hands the newest one to the JavaFX thread at most ten times a second, with no more than one update waiting there at a time.  However fast the
+ * search finishes depths, the JavaFX thread does the same small amount of work per frame.
+ *
+ * @author Folz
+ *
+ */
+public class AnalysisPanel {
+	private static final int MAX_DEPTH    = 16;
+	private static final long FRAME_MILLIS = 100;
+	private static final double BAR_SCALE = 4; //score at which the bar is about three quarters full
+
+	private final VBox view;
+	private final ProgressBar evaluationBar;
+	private final Label scoreLabel;
+	private final Label[] columnLabels;
+	private final Label lineLabel;
+
+	private final Object lock;
+	private Board position;           //guarded by lock
+	private int generation;           //guarded by lock, changes with every new position
+	private int analyzedGeneration;   //guarded by lock
+	private boolean running;          //guarded by lock
+	private boolean shutDown;         //guarded by lock
+	private volatile ComputerPlayer searcher;
+	private TranspositionTable table; //guarded by lock, created when analysis is first turned on
+	private Thread analyzer;          //guarded by lock
+
+	private final AtomicReference<Analysis> latest;
+	private final AtomicBoolean frameQueued;
+	private ScheduledExecutorService frameTimer; //guarded by lock
+
+	/**
+	 * Results of one finished depth.
+	 */
+	private static class Analysis {
+		final int depth;
+		final double score;
+		final double[] columnScores;
+		final int[] line;
+		final long nodes;
+
+		Analysis(int depth, double score, double[] columnScores, int[] line, long nodes){
+			this.depth        = depth;
+			this.score        = score;
+			this.columnScores = columnScores;
+			this.line         = line;
+			this.nodes        = nodes;
+		}
+	}
+
+	/**
+	 * Builds the panel.  Its table, analysis thread and frame timer are only created once {@link #setRunning(boolean) analysis is turned on}, so a
+	 * window whose analysis is never used costs no more than its labels.
+	 */
+	public AnalysisPanel(){
+		evaluationBar = new ProgressBar(0.5);
+		evaluationBar.setPrefWidth(160);
+		scoreLabel    = new Label("Waiting for a position");
+		columnLabels  = new Label[Board.NUM_COLUMNS];
+		for(int c = 0; c < columnLabels.length; ++c){
+			columnLabels[c] = new Label((c + 1) + ": -");
+		}
+		lineLabel = new Label();
+		lineLabel.setPrefWidth(160);
+
+		view = new VBox(5);
+		view.getChildren().addAll(new Label("Analysis"), evaluationBar, scoreLabel);
+		view.getChildren().addAll(columnLabels);
+		view.getChildren().add(lineLabel);
+		view.setPadding(new Insets(10));
+
+		lock        = new Object();
+		latest      = new AtomicReference<Analysis>();
+		frameQueued = new AtomicBoolean();
+	}
+
+	/**
+	 * @return The node to put in the scene.
+	 */
+	public VBox getNode(){
+		return view;
+	}
+
+	/**
+	 * Starts analyzing a position, dropping the analysis of the previous one.  Safe to call from any thread.
+	 *
+	 * @param board Position to analyze.
+	 */
+	public void setPosition(Board board){
+		synchronized(lock){
+			position = board;
+			++generation;
+			lock.notifyAll();
+		}
+		latest.set(null); //whatever hasn't been shown yet is about the old position
+		stopSearch();
+	}
+
+	/**
+	 * Turns analysis on or off.  While it is off nothing is searched, but the position is still followed so analysis picks up from the latest one.
+	 * Turning it on after {@link #shutdown()} does nothing.
+	 *
+	 * @param running True to analyze.
+	 */
+	public void setRunning(boolean running){
+		synchronized(lock){
+			if(running && shutDown) return;
+			if(running && analyzer == null){
+				start();
+			}
+			if(running && !this.running){
+				++generation; //start over on the position analysis was stopped in
+			}
+			this.running = running;
+			lock.notifyAll();
+		}
+		if(!running){
+			stopSearch();
+		}
+	}
+
+	/**
+	 * Stops the panel for good, such as when its window closes.  The analysis thread ends, so it no longer holds on to the panel and its table.
+	 */
+	public void shutdown(){
+		setRunning(false);
+		synchronized(lock){
+			shutDown = true;
+			if(analyzer != null){
+				analyzer.interrupt();
+				frameTimer.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Creates the table, the analysis thread and the frame timer the first time analysis is turned on.  Called with the lock held.
+	 */
+	private void start(){
+		table = TranspositionTable.fromSystemProperties();
+
+		analyzer = new Thread(this::analyzePositions, "analysis");
+		analyzer.setDaemon(true);
+		analyzer.setPriority(Thread.MIN_PRIORITY); //the board and the computer player come first
+		analyzer.start();
+
+		frameTimer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "analysis-frames");
+			thread.setDaemon(true);
+			return thread;
+		});
+		frameTimer.scheduleAtFixedRate(this::queueFrame, FRAME_MILLIS, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void stopSearch(){
+		ComputerPlayer current = searcher;
+		if(current != null){
+			current.stop();
+		}
+	}
+
+	/**
+	 * Runs on the analysis thread, analyzing each new position as it comes.
+	 */
+	private void analyzePositions(){
+		while(true){
+			Board board;
+			int analyzing;
+			TranspositionTable table;
+			synchronized(lock){
+				while(!running || position == null || analyzedGeneration == generation){
+					try{
+						lock.wait();
+					} catch(InterruptedException e){
+						searcher = null;
+						return;
+					}
+				}
+				board              = position;
+				analyzing          = generation;
+				analyzedGeneration = generation;
+				table              = this.table;
+			}
+			analyze(board, analyzing, table);
+		}
+	}
+
+	private boolean isStale(int analyzing){
+		synchronized(lock){
+			return !running || generation != analyzing;
+		}
+	}
+
+	/**
+	 * Searches a position deeper and deeper, publishing the results of every finished depth, until the position changes, the result is certain or
+	 * {@link #MAX_DEPTH} is reached.
+	 */
+	private void analyze(Board board, int analyzing, TranspositionTable table){
+		if(Math.abs(board.getValue()) > 1_000 || board.generateMoveList().isEmpty()){
+			double[] noMoves = new double[Board.NUM_COLUMNS];
+			Arrays.fill(noMoves, Double.NaN);
+			latest.set(new Analysis(0, board.getValue(), noMoves, new int[0], 0));
+			return;
+		}
+
+		ComputerPlayer player = new ComputerPlayer(board.isRedTurn());
+		player.setTranspositionTable(table);
+		searcher = player;
+		long nodes = 0;
+		for(int depth = 1; depth <= MAX_DEPTH; ++depth){
+			double[] scores = new double[Board.NUM_COLUMNS];
+			int[][] lines   = new int[Board.NUM_COLUMNS][];
+			Arrays.fill(scores, Double.NaN);
+			for(int move : board.generateMoveList()){
+				if(isStale(analyzing)) return;
+				SearchInfo info = player.searchPosition(new Board(board, move), depth - 1);
+				scores[move] = info.getScore();
+				lines[move]  = info.getPrincipalVariation();
+				nodes       += info.getNodes();
+			}
+			if(isStale(analyzing)) return; //the last search may have been cut short
+
+			int best     = player.selectBestMove(scores);
+			int[] line   = new int[lines[best].length + 1];
+			line[0]      = best;
+			System.arraycopy(lines[best], 0, line, 1, lines[best].length);
+			latest.set(new Analysis(depth, scores[best], scores, line, nodes));
+			if(Math.abs(scores[best]) > 1_000){
+				return; //the result is certain, deeper searches only find the same win
+			}
+		}
+	}
+
+	/**
+	 * Runs on the frame timer, handing the newest result to the JavaFX thread unless it still has one waiting.
+	 */
+	private void queueFrame(){
+		if(latest.get() != null && frameQueued.compareAndSet(false, true)){
+			Platform.runLater(this::showLatest);
+		}
+	}
+
+	private void showLatest(){
+		frameQueued.set(false);
+		Analysis analysis = latest.getAndSet(null);
+		if(analysis == null) return;
+
+		double redShare = Math.abs(analysis.score) > 1_000? (analysis.score > 0? 1 : 0) : 0.5 + 0.5 * Math.tanh(analysis.score / BAR_SCALE * 0.55);
+		evaluationBar.setProgress(redShare);
+		scoreLabel.setText(String.format("%s  depth %d, %,d nodes", scoreText(analysis.score), analysis.depth, analysis.nodes));
+		for(int c = 0; c < columnLabels.length; ++c){
+			columnLabels[c].setText((c + 1) + ": " + (Double.isNaN(analysis.columnScores[c])? "-" : scoreText(analysis.columnScores[c])));
+		}
+		StringBuilder line = new StringBuilder(analysis.line.length == 0? "" : "Line:");
+		for(int move : analysis.line){
+			line.append(' ').append(move + 1);
+		}
+		lineLabel.setText(line.toString());
+	}
+
+	private static String scoreText(double score){
+		if(Math.abs(score) > 1_000){
+			return score > 0? "Player 1 wins" : "Player 2 wins";
+		}
+		return String.format("%+.2f", score);
+	}
+}
@@ -0,0 +1,206 @@
+package connectfour.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.ComputerPlayer;
+import connectfour.analysis.SearchInfo;
+import connectfour.analysis.TranspositionTable;
+
+/**
+ * Analyzes a stream of positions, one per line as the moves played from the empty board like {@link Board#fromMoves(String)}, and writes the best
+ * move and score of each.
+ *
+ * Positions are searched by a pool of workers, each with its own transposition table, which is cleared before every position so the results are the
+ * same whatever the number of workers.  Since clearing takes longer than a shallow search, tables are only as big as the depth needs, up to the size
+ * set by connectfour.hash.mb.  The results are written in the order the positions were read.  Only a fixed window of positions is in
+ * flight at a time: once it is full, the reader waits for the oldest one to be written, so memory use doesn't grow with the size of the input
+ * however far the workers get ahead of a slow position.
+ *
+ * Each output line is the moves, the best move and the score, separated by tabs.  The best move is "none" when the game is already over, and a line
+ * that isn't a legal game is written back with "error" and the reason.
+ *
+ * @author Folz
+ *
+ */
+public class BatchAnalyzer {
+	private static final int WINDOW_PER_WORKER = 64;
+
+	private final int depth;
+	private final int workers;
+	private final ThreadLocal<TranspositionTable> tables;
+
+	/**
+	 * Totals of one run.
+	 */
+	public static class Summary {
+		public long positions;
+		public long errors;
+		public long nodes;
+		public long elapsedNanos;
+
+		public double getPositionsPerSecond(){
+			return positions * 1e9 / Math.max(1, elapsedNanos);
+		}
+
+		public double getNodesPerSecond(){
+			return nodes * 1e9 / Math.max(1, elapsedNanos);
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%,d positions (%,d errors) in %.2f s: %,.0f positions/s, %,.0f nodes/s",
+					positions, errors, elapsedNanos / 1e9, getPositionsPerSecond(), getNodesPerSecond());
+		}
+	}
+
+	/**
+	 * Result of one position.
+	 */
+	private static class Result {
+		final String line;
+		final long nodes;
+		final boolean error;
+
+		Result(String line, long nodes, boolean error){
+			this.line  = line;
+			this.nodes = nodes;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * @param depth Ply to search each position to, at least 1.
+	 * @param workers Number of positions searched at once.
+	 * @throws IllegalArgumentException if the depth is less than 1.
+	 */
+	public BatchAnalyzer(int depth, int workers){
+		if(depth < 1){
+			throw new IllegalArgumentException("The depth must be at least 1, not " + depth);
+		}
+		this.depth   = depth;
+		this.workers = Math.max(1, workers);
+		this.tables  = ThreadLocal.withInitial(() -> TranspositionTable.forDepth(depth));
+	}
+
+	/**
+	 * Analyzes every position read until the end of the input.
+	 *
+	 * @param in Positions, one per line.  Blank lines are skipped.
+	 * @param out Where results are written, one line per position in input order.
+	 * @return Totals of the run.
+	 * @throws IOException if reading or writing fails.
+	 */
+	public Summary analyze(Reader in, Writer out) throws IOException{
+		BufferedReader reader  = in instanceof BufferedReader? (BufferedReader)in : new BufferedReader(in);
+		PrintWriter writer     = new PrintWriter(out instanceof BufferedWriter? out : new BufferedWriter(out, 1 << 16));
+		ExecutorService pool   = Executors.newFixedThreadPool(workers, (runnable) -> {
+			Thread thread = new Thread(runnable, "batch-analysis");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ArrayDeque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+		int window      = workers * WINDOW_PER_WORKER;
+		Summary summary = new Summary();
+		long start      = System.nanoTime();
+
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				String moves = line.trim();
+				if(moves.isEmpty()) continue;
+				if(pending.size() >= window){
+					write(pending.poll(), writer, summary);
+				}
+				pending.add(pool.submit(() -> analyzePosition(moves)));
+			}
+			while(!pending.isEmpty()){
+				write(pending.poll(), writer, summary);
+			}
+		} finally {
+			pool.shutdownNow();
+			writer.flush();
+		}
+		summary.elapsedNanos = System.nanoTime() - start;
+		return summary;
+	}
+
+	private static void write(Future<Result> future, PrintWriter writer, Summary summary) throws IOException{
+		Result result;
+		try{
+			result = future.get();
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for an analysis", e);
+		} catch(ExecutionException e){
+			throw new IOException("Analysis failed", e.getCause());
+		}
+		writer.println(result.line);
+		++summary.positions;
+		summary.nodes += result.nodes;
+		if(result.error){
+			++summary.errors;
+		}
+	}
+
+	/**
+	 * Runs on a worker, searching one position.
+	 */
+	private Result analyzePosition(String moves){
+		Board board;
+		try{
+			board = Board.fromMoves(moves);
+		} catch(IllegalArgumentException e){
+			return new Result(moves + "\terror\t" + e.getMessage(), 0, true);
+		}
+		if(board.generateMoveList().isEmpty() || Math.abs(board.getValue()) > 1_000){
+			return new Result(moves + "\tnone\t" + String.format("%.3f", board.getValue()), 0, false);
+		}
+
+		TranspositionTable table = tables.get();
+		table.clear(); //what is left from earlier positions would make results depend on which worker got the position
+		ComputerPlayer player = new ComputerPlayer(board.isRedTurn());
+		player.setTranspositionTable(table);
+		SearchInfo[] last = new SearchInfo[1];
+		int move = player.getEvenBetterMove(board, Math.min(depth, Board.NUM_ROWS * Board.NUM_COLUMNS - board.getNumOfMoves()), (info) -> last[0] = info);
+		return new Result(moves + "\t" + move + "\t" + String.format("%.3f", last[0].getScore()), player.getNodes(), false);
+	}
+
+	/**
+	 * Analyzes positions from a file or standard input and writes the results to standard output, with the totals on standard error.
+	 *
+	 * @param args Depth (default 8, at least 1), number of workers (default one per processor) and the file to read, or "-" or nothing for standard
+	 *             input.
+	 * @throws IOException if reading or writing fails.
+	 */
+	public static void main(String... args) throws IOException{
+		int depth   = args.length > 0? Integer.parseInt(args[0]) : 8;
+		if(depth < 1){
+			System.err.println("Usage: BatchAnalyzer [depth, at least 1] [workers] [file or -]");
+			return;
+		}
+		int workers = args.length > 1? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		boolean fromFile = args.length > 2 && !args[2].equals("-");
+
+		try(InputStream input = fromFile? new FileInputStream(args[2]) : System.in){
+			Writer output   = new OutputStreamWriter(System.out, StandardCharsets.US_ASCII);
+			Summary summary = new BatchAnalyzer(depth, workers).analyze(new InputStreamReader(input, StandardCharsets.US_ASCII), output);
+			System.err.println(summary);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package connectfour.util;
+
+import java.util.function.IntConsumer;
+
+import connectfour.analysis.Board;
+import javafx.geometry.Insets;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.StackPane;
+
+/**
+ * Draws a {@link Board} as a grid of cells that are made once and then only changed, never rebuilt.
+ *
+ * Every cell keeps its square and a piece view that stays in place, so showing a new position only sets the image of the cells whose piece changed
+ * since the last position shown.  A move changes one cell, while loading a game, taking back moves or changing the piece images changes each cell
+ * that differs in a single pass, and JavaFX lays them out together on the next pulse.  Must only be used on the JavaFX application thread.
+ *
+ * @author Folz
+ *
+ */
+public class BoardView {
+	private final GridPane grid;
+	private final StackPane[][] cells;   //indexed [row][column] like Board, row 0 at the bottom
+	private final ImageView[][] pieces;
+	private final byte[][] shown;        //piece drawn in each cell, 0 for none
+	private Image p1Piece;
+	private Image p2Piece;
+	private boolean disabled;
+	private int cellsChanged;
+
+	/**
+	 * Makes the cells of an empty board.
+	 *
+	 * @param square Image of an empty square.
+	 * @param p1Piece Image of a player 1 piece.
+	 * @param p2Piece Image of a player 2 piece.
+	 * @param onColumnClicked Called with the column of a cell when it is clicked.
+	 */
+	public BoardView(Image square, Image p1Piece, Image p2Piece, IntConsumer onColumnClicked){
+		this.grid    = new GridPane();
+		this.cells   = new StackPane[Board.NUM_ROWS][Board.NUM_COLUMNS];
+		this.pieces  = new ImageView[Board.NUM_ROWS][Board.NUM_COLUMNS];
+		this.shown   = new byte[Board.NUM_ROWS][Board.NUM_COLUMNS];
+		this.p1Piece = p1Piece;
+		this.p2Piece = p2Piece;
+
+		grid.setPadding(new Insets(5));
+		grid.setStyle("-fx-background-color: gold");
+		for(int col = 0; col < Board.NUM_COLUMNS; ++col){
+			for(int row = 0; row < Board.NUM_ROWS; ++row){
+				ImageView squareView = new ImageView(square);
+				ImageView pieceView  = new ImageView();
+				squareView.setMouseTransparent(true);
+				pieceView.setMouseTransparent(true);
+
+				int column     = col;
+				StackPane cell = new StackPane(squareView, pieceView);
+				cell.setOnMouseClicked((event) -> onColumnClicked.accept(column));
+				cells[row][col]  = cell;
+				pieces[row][col] = pieceView;
+				grid.add(cell, col, Board.NUM_ROWS - 1 - row);
+			}
+		}
+	}
+
+	/**
+	 * @return The node to put in the scene.
+	 */
+	public GridPane getNode(){
+		return grid;
+	}
+
+	/**
+	 * Shows a position, changing only the cells that differ from the position shown before.
+	 *
+	 * @param board Position to show.
+	 */
+	public void show(Board board){
+		byte[][] squares = board.getBoard();
+		for(int row = 0; row < Board.NUM_ROWS; ++row){
+			for(int col = 0; col < Board.NUM_COLUMNS; ++col){
+				if(shown[row][col] != squares[row][col]){
+					shown[row][col] = squares[row][col];
+					pieces[row][col].setImage(imageOf(shown[row][col]));
+					++cellsChanged;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Changes the images of the pieces.  Only cells holding a piece whose image changed are touched.
+	 *
+	 * @param p1Piece Image of a player 1 piece.
+	 * @param p2Piece Image of a player 2 piece.
+	 */
+	public void setPieceImages(Image p1Piece, Image p2Piece){
+		boolean p1Changed = p1Piece != this.p1Piece;
+		boolean p2Changed = p2Piece != this.p2Piece;
+		this.p1Piece      = p1Piece;
+		this.p2Piece      = p2Piece;
+		for(int row = 0; row < Board.NUM_ROWS; ++row){
+			for(int col = 0; col < Board.NUM_COLUMNS; ++col){
+				if((shown[row][col] == 1 && p1Changed) || (shown[row][col] == -1 && p2Changed)){
+					pieces[row][col].setImage(imageOf(shown[row][col]));
+					++cellsChanged;
+				}
+			}
+		}
+	}
+
+	private Image imageOf(byte piece){
+		return piece == 1? p1Piece : piece == -1? p2Piece : null;
+	}
+
+	/**
+	 * Enables and disables clicking on the cells.
+	 *
+	 * @param disabled Value to set interactivity to
+	 */
+	public void setDisable(boolean disabled){
+		this.disabled = disabled;
+		for(StackPane[] row : cells){
+			for(StackPane cell : row){
+				cell.setDisable(disabled);
+			}
+		}
+	}
+
+	public boolean isDisabled(){
+		return disabled;
+	}
+
+	/**
+	 * @return Number of cells whose image has been changed, for checking that updates stay small.
+	 */
+	public int getCellsChanged(){
+		return cellsChanged;
+	}
+}
@@ -1,5 +1,7 @@
 package connectfour.util;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
 
 import connectfour.analysis.Board;
@@ -14,7 +16,15 @@ import connectfour.analysis.ComputerPlayer;
 public class ConnectFourCLI {
 	static Board gameBoard;
 	
-	public static void main(String... args){
+	public static void main(String... args) throws IOException{
+		if(args.length > 0 && args[0].equals("engine")){
+			new EngineProtocol(System.in, System.out).run(); //for programs that run games between engines
+			return;
+		}
+		if(args.length > 0 && args[0].equals("batch")){
+			BatchAnalyzer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		gameBoard = new Board();
 		playGame();
 		
@@ -3,18 +3,17 @@ package connectfour.util;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 import connectfour.analysis.Board;
 import connectfour.analysis.ComputerPlayer;
+import connectfour.network.GameProtocol;
+import connectfour.util.GameClock.TimeControl;
+import connectfour.util.ImageCache.PieceTheme;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
@@ -24,6 +23,7 @@ import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
@@ -39,9 +39,7 @@ import javafx.scene.control.ToggleGroup;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
-import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
@@ -55,7 +53,15 @@ import javafx.stage.Stage;
  */
 public class ConnectFourGUI extends Application{
 	Board gameBoard;
-	GridPane board;
+	BoardView boardView;
+	AnalysisPanel analysisPanel;
+	Stage analysisWindow;
+	BorderPane root;
+	TimeControl timeControl = TimeControl.NONE;
+	GameClock clock;
+	AnimationTimer clockTimer;
+	Label redClockLabel;
+	Label yellowClockLabel;
 	int move;
 	int moveCount;
 	boolean p1isHuman;
@@ -71,15 +77,20 @@ public class ConnectFourGUI extends Application{
 	public void start(Stage primaryStage){
 		gameBoard = new Board();
 		
-		board = new GridPane();
-		board.setPadding(new Insets(5));
-		board.setStyle("-fx-background-color: gold");
 		loadImages();
 		primaryStage.getIcons().add(raiseFlag());
-		setUpBoard(primaryStage);
+		boardView = new BoardView(square, p1Piece, p2Piece, (column) -> columnClicked(primaryStage, column));
+		analysisPanel = new AnalysisPanel();
+		analysisPanel.setPosition(gameBoard);
+		clockTimer = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				updateClocks(primaryStage);
+			}
+		};
 
-		BorderPane root = new BorderPane();
-		root.setCenter(board);
+		root = new BorderPane();
+		root.setCenter(boardView.getNode());
 		root.setTop(makeMenuBar(primaryStage));
 		root.setBottom(makeCoordinates());
 		root.setRight(makeSideView());
@@ -208,44 +219,45 @@ public class ConnectFourGUI extends Application{
 					in = new DataInputStream(socket.getInputStream());
 					out = new DataOutputStream(socket.getOutputStream());
 					
+					startClock();
 					Thread serverThread = new Thread( () -> {
+						ByteBuffer buffer = ByteBuffer.allocate(GameProtocol.MAX_FRAME_BYTES);
+						GameProtocol.Message message = new GameProtocol.Message();
 						try{
-							out.writeUTF("ST");
-							out.flush();
+							GameProtocol.writeGameStarted(buffer, 0, 0, GameProtocol.YELLOW); //other side plays yellow
+							GameProtocol.send(out, buffer);
 						}catch(IOException e){
 							
 						}
 						while(true){
 							try{
-								String data = DataInputStream.readUTF(in);
-								if(data.charAt(0) == 'A'){
-									ComputerPlayer computer = new ComputerPlayer(gameBoard.isRedTurn());
-									move = computer.getEvenBetterMove(gameBoard, ply);
-									data = "M" + move + "T";
-									out.writeUTF(data);
-									out.flush();
+								GameProtocol.read(in, message);
+								if(message.opcode == GameProtocol.GAME){ //other side is ready, make the first move
+									move = computerMove(gameBoard);
+									GameProtocol.writeMove(buffer, 0, gameBoard.getNumOfMoves(), move);
+									GameProtocol.send(out, buffer);
 									Platform.runLater(new Runnable() {
 										@Override
 										public void run() {
 											playTurn(primaryStage);
 										}
 				        			});
-								} else if(data.charAt(0) == 'M'){ //move
-									move = Integer.parseInt(data.substring(1, 2));
+								} else if(message.opcode == GameProtocol.MOVE){
+									move = message.payload[0];
+									Board afterMove = new Board(gameBoard, move);
 									Platform.runLater(new Runnable() {
 										@Override
 										public void run() {
 											playTurn(primaryStage);
 										}
 				        			});
-									ComputerPlayer computer = new ComputerPlayer(gameBoard.isRedTurn());
-									move = computer.getEvenBetterMove(gameBoard, ply);
-									data = "M" + move + "T";
-									out.writeUTF(data);
-									out.flush();
+									int reply = computerMove(afterMove);
+									GameProtocol.writeMove(buffer, 0, afterMove.getNumOfMoves(), reply);
+									GameProtocol.send(out, buffer);
 									Platform.runLater(new Runnable() {
 										@Override
 										public void run() {
+											move = reply;
 											playTurn(primaryStage);
 										}
 				        			});
@@ -266,34 +278,36 @@ public class ConnectFourGUI extends Application{
 					in = new DataInputStream(socket.getInputStream());
 					out = new DataOutputStream(socket.getOutputStream());
 					
+					startClock();
 					Thread clientThread = new Thread( () -> {
+						ByteBuffer buffer = ByteBuffer.allocate(GameProtocol.MAX_FRAME_BYTES);
+						GameProtocol.Message message = new GameProtocol.Message();
 						while(true){ //change to while game is still a thing
 							try {
-								String data = DataInputStream.readUTF(in);
-								if(data.charAt(0) == 'S'){
-									out.writeUTF("AT");
-									out.flush();
-								} else if(data.charAt(0) == 'M'){ //move
-									move = Integer.parseInt(data.substring(1, 2));
+								GameProtocol.read(in, message);
+								if(message.opcode == GameProtocol.GAME){ //tell the server to start
+									GameProtocol.writeGameRequest(buffer, 0, GameProtocol.VS_CLIENT, ply);
+									GameProtocol.send(out, buffer);
+								} else if(message.opcode == GameProtocol.MOVE){
+									move = message.payload[0];
+									Board afterMove = new Board(gameBoard, move);
 									Platform.runLater(new Runnable() {
 										@Override
 										public void run() {
 											playTurn(primaryStage);
 										}
 				        			});
-									ComputerPlayer computer = new ComputerPlayer(gameBoard.isRedTurn());
-									move = computer.getEvenBetterMove(gameBoard, ply);
-									data = "M" + move + "T";
-									out.writeUTF(data);
-									out.flush();
+									int reply = computerMove(afterMove);
+									GameProtocol.writeMove(buffer, 0, afterMove.getNumOfMoves(), reply);
+									GameProtocol.send(out, buffer);
 									Platform.runLater(new Runnable() {
 										@Override
 										public void run() {
+											move = reply;
 											playTurn(primaryStage);
 										}
 				        			});
 								}
-								data = "";
 							} catch (IOException e) {
 								
 							}
@@ -348,11 +362,12 @@ public class ConnectFourGUI extends Application{
         acceptButton.setOnAction((event) -> {
         	p1isHuman = p1Toggles.getSelectedToggle().equals(p1Human);
         	p2isHuman = p2Toggles.getSelectedToggle().equals(p2Human);
+        	startClock();
         	
         	if(!p1isHuman && p2isHuman){ //let computer move first when p1 is computer
 				setDisable(true);
         		Thread calcThread = new Thread( () -> {
-        			move = new ComputerPlayer(gameBoard.isRedTurn()).getEvenBetterMove(gameBoard, ply);
+        			move = computerMove(gameBoard);
         			Platform.runLater(new Runnable() {
 						@Override
 						public void run() {
@@ -366,8 +381,8 @@ public class ConnectFourGUI extends Application{
         	if(!p1isHuman && !p2isHuman){//if both are computers
 				setDisable(true);
     			Thread calcThread = new Thread( () -> {
-    				while(! (Math.abs(gameBoard.getValue()) > 1_000 || gameBoard.getNumOfMoves() >= 42) ){
-            			move = new ComputerPlayer(gameBoard.isRedTurn()).getEvenBetterMove(gameBoard, ply);
+    				while(! (Math.abs(gameBoard.getValue()) > 1_000 || gameBoard.getNumOfMoves() >= 42 || (clock != null && clock.isFlagged())) ){
+            			move = computerMove(gameBoard);
             			Platform.runLater(new Runnable() {
     						@Override
     						public void run() {
@@ -393,19 +408,13 @@ public class ConnectFourGUI extends Application{
 	 * Plays one turn of the game.
 	 */
 	private void playTurn(Stage primaryStage){
+		if(clock != null && clock.isFlagged()){
+			return; //lost on time, which updateClocks has already announced
+		}
 		gameBoard = new Board(gameBoard, move);
-		
-		int row = 6 - gameBoard.getColumnCount()[move];
-		StackPane temp = (StackPane)getNodeByCoordinate(move, row);
-		ImageView tempImg;
-		if(gameBoard.isRedTurn()){ //move has already been made, so use color of previous turn
-			tempImg = new ImageView(p2Piece);
-			tempImg.setMouseTransparent(true);
-			temp.getChildren().add(tempImg);
-		} else {
-			tempImg = new ImageView(p1Piece);
-			tempImg.setMouseTransparent(true);
-			temp.getChildren().add(tempImg);
+		showBoard();
+		if(clock != null){
+			clock.press();
 		}
 		
 		if(Math.abs(gameBoard.getValue()) > 1_000 || gameBoard.getNumOfMoves() >= 42){
@@ -413,20 +422,86 @@ public class ConnectFourGUI extends Application{
 		} 
 	}
 
+	/**
+	 * Has the computer choose a move, playing to the clock if there is one and to the difficulty setting otherwise.
+	 * 
+	 * @param board Position to move in
+	 * @return Column of the chosen move
+	 */
+	private int computerMove(Board board){
+		ComputerPlayer computer = new ComputerPlayer(board.isRedTurn());
+		if(clock == null){
+			return computer.getEvenBetterMove(board, ply);
+		}
+		return computer.getTimedMove(board, clock.getRemainingMillis(board.isRedTurn()), clock.getIncrementMillis(), null);
+	}
+
+	/**
+	 * Sets the clocks to the chosen time control and starts the clock of the player to move.
+	 */
+	private void startClock(){
+		clock = timeControl.newClock();
+		if(clock != null){
+			clock.start(gameBoard.isRedTurn());
+			clockTimer.start();
+		}
+	}
+
+	/**
+	 * Shows the time left on both clocks, ending the game if the player to move has run out.  Called by the clock timer every frame.
+	 * 
+	 * @param primaryStage The primary Stage of the entire application
+	 */
+	private void updateClocks(Stage primaryStage){
+		redClockLabel.setText("Player 1: " + GameClock.format(clock.getRemainingMillis(true)));
+		yellowClockLabel.setText("Player 2: " + GameClock.format(clock.getRemainingMillis(false)));
+		if(clock.isFlagged()){
+			endGameDialog(primaryStage, "Player " + (clock.isRedToMove()? "2":"1") + " Wins on time!");
+		}
+	}
+
+	/**
+	 * Shows the current position on the board and in the analysis panel.
+	 */
+	private void showBoard(){
+		boardView.show(gameBoard);
+		analysisPanel.setPosition(gameBoard);
+	}
+
 	/**
 	 * Opens a dialog box informing the user of the victor, if any, of the game, and gives an option to start a new game
 	 * 
 	 * @param primaryStage The primary Stage of the entire application
 	 */
 	private void endGameDialog(Stage primaryStage) {
-		setDisable(true); //game is over, of course the user can't interact with the board anymore
-		
-        Label endLabel = new Label();
         if(gameBoard.getNumOfMoves() >= 42){
-        	endLabel.setText("Game is a draw.");
+        	endGameDialog(primaryStage, "Game is a draw.");
         } else {
-        	endLabel.setText("Player " + (gameBoard.getValue() > 1_000? "1":"2") + " Wins!" );
+        	endGameDialog(primaryStage, "Player " + (gameBoard.getValue() > 1_000? "1":"2") + " Wins!");
         }
+	}
+
+	/**
+	 * Stops the clocks and their display, if the game has any, such as when the game ends or this window is replaced by a new game.
+	 */
+	private void stopClock(){
+		if(clock != null){
+			clock.stop();
+			clockTimer.stop();
+		}
+	}
+
+	/**
+	 * Opens a dialog box announcing how the game ended, and gives an option to start a new game
+	 * 
+	 * @param primaryStage The primary Stage of the entire application
+	 * @param result How the game ended
+	 */
+	private void endGameDialog(Stage primaryStage, String result) {
+		setDisable(true); //game is over, of course the user can't interact with the board anymore
+		stopClock();
+		
+        Label endLabel = new Label(result);
         endLabel.setAlignment(Pos.CENTER);
         
         Button newGame = new Button("New game?");
@@ -435,6 +510,8 @@ public class ConnectFourGUI extends Application{
         	ConnectFourGUI application = new ConnectFourGUI();
         	Stage applicationStage     = new Stage();
         	application.start(applicationStage);
+        	stopClock();
+        	analysisPanel.shutdown();
         	primaryStage.close();
         });
 
@@ -469,9 +546,7 @@ public class ConnectFourGUI extends Application{
             File selectedFile = fileChooser.showSaveDialog(primaryStage);
             
 			try{
-				ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(selectedFile));
-				oos.writeObject(gameBoard);
-				oos.close();
+				SavedGame.write(gameBoard, selectedFile.toPath());
 			} catch (IOException e){
 			
 			} 
@@ -485,12 +560,11 @@ public class ConnectFourGUI extends Application{
 			File selectedFile = fileChooser.showOpenDialog(primaryStage);
 			
 			try{
-				ObjectInputStream ois = new ObjectInputStream(new FileInputStream(selectedFile));
-				gameBoard = (Board)ois.readObject();
-				redraw(primaryStage);
-				ois.close();
-			}catch(ClassNotFoundException e){
-				
+				if(SavedGame.isSerializedBoard(selectedFile.toPath())){
+					SavedGame.convert(selectedFile.toPath()); //saved by an older version
+				}
+				gameBoard = SavedGame.read(selectedFile.toPath());
+				showBoard();
 			}catch(IOException e){
 				
 			}
@@ -501,6 +575,8 @@ public class ConnectFourGUI extends Application{
         	ConnectFourGUI application = new ConnectFourGUI();
         	Stage applicationStage = new Stage();
         	application.start(applicationStage);
+        	stopClock();
+        	analysisPanel.shutdown();
         	primaryStage.close();
         });
 		
@@ -532,82 +608,28 @@ public class ConnectFourGUI extends Application{
 			
 			VBox selections = new VBox(20);
 			ChoiceBox<String> p1sprite = new ChoiceBox<String>();
-			p1sprite.getItems().addAll("Red", "Black", "Purple", "Halloween", "Easter");
+			for(PieceTheme theme : PieceTheme.values()){
+				p1sprite.getItems().add(theme.toString());
+			}
 			p1sprite.getSelectionModel().select(0);
 			p1sprite.getSelectionModel().selectedIndexProperty().addListener(new ChangeListener<Number>() {
 				@Override
 				public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
-					String separator = File.separator;
-					String path      = "src" + separator + "connectfour" + separator + "util" + separator + "images" + separator;
-					File p1PieceFile;
-					
-					InputStream inputStream = null;
-					switch(newValue.intValue()){
-						case 0://red 
-							p1PieceFile = new File(path + "p1Piece.png");
-							break;
-						case 1://black
-							p1PieceFile = new File(path + "p2Piece.png");
-							break;
-						case 2: //purple
-							p1PieceFile = new File(path + "PurplePiece.png");
-							break;
-						case 3://halloween
-							p1PieceFile = new File(path + "HalloweenPiece.png");
-							break;
-						case 4://easter
-							p1PieceFile = new File(path + "EasterPiece.png");
-							break;
-						default:
-							p1PieceFile = new File(path + "p1Piece.png");
-					}
-					try {
-						inputStream = new FileInputStream(p1PieceFile);
-						p1Piece = new Image(inputStream);
-					} catch (FileNotFoundException e) {
-						
-					}
-					redraw(primaryStage);
+					p1Piece = ImageCache.getPiece(PieceTheme.values()[newValue.intValue()]);
+					boardView.setPieceImages(p1Piece, p2Piece);
 				}
 			});
 			
 			ChoiceBox<String> p2sprite = new ChoiceBox<String>();
-			p2sprite.getItems().addAll("Red", "Black", "Purple", "Halloween", "Easter");
+			for(PieceTheme theme : PieceTheme.values()){
+				p2sprite.getItems().add(theme.toString());
+			}
 			p2sprite.getSelectionModel().select(1);
 			p2sprite.getSelectionModel().selectedIndexProperty().addListener(new ChangeListener<Number>() {
 				@Override
 				public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
-					String separator = File.separator;
-					String path = "src" + separator + "connectfour" + separator + "util" + separator + "images" + separator;
-					File p2PieceFile;
-					
-					InputStream inputStream = null;
-					switch(newValue.intValue()){
-						case 0://red 
-							p2PieceFile = new File(path + "p1Piece.png");
-							break;
-						case 1://black
-							p2PieceFile = new File(path + "p2Piece.png");
-							break;
-						case 2://purple
-							p2PieceFile = new File(path + "PurplePiece.png");
-							break;
-						case 3://halloween
-							p2PieceFile = new File(path + "HalloweenPiece.png");
-							break;
-						case 4://easter
-							p2PieceFile = new File(path + "EasterPiece.png");
-							break;
-						default:
-							p2PieceFile = new File(path + "p2Piece.png");
-					}
-					try {
-						inputStream = new FileInputStream(p2PieceFile);
-						p2Piece = new Image(inputStream);
-					} catch (FileNotFoundException e) {
-						
-					}
-					redraw(primaryStage);
+					p2Piece = ImageCache.getPiece(PieceTheme.values()[newValue.intValue()]);
+					boardView.setPieceImages(p1Piece, p2Piece);
 				}
 			});
 			selections.getChildren().addAll(p1sprite, p2sprite);
@@ -627,7 +649,29 @@ public class ConnectFourGUI extends Application{
             dialog.show();
 		});
 		
-		edit.getItems().addAll(changeDifficulty, advanced);
+		MenuItem undo = new MenuItem("Undo Move");
+		undo.setOnAction((event) -> {
+			if(boardView.isDisabled() || !(p1isHuman || p2isHuman)){
+				return; //the computer is thinking, or the game isn't being played here
+			}
+			int takeBack = p1isHuman && p2isHuman? 1 : 2; //take back the computer's reply along with the player's move
+			byte[] moves = gameBoard.getMoveHistory();
+			if(moves == null || moves.length < takeBack){
+				return;
+			}
+			Board undone = new Board();
+			for(int i = 0; i < moves.length - takeBack; ++i){
+				undone = new Board(undone, moves[i]);
+			}
+			gameBoard = undone;
+			if(clock != null){
+				clock.stop(); //charge the time spent so far to whoever was to move, then run the clock of whoever is to move now
+				clock.start(gameBoard.isRedTurn());
+			}
+			showBoard();
+		});
+		
+		edit.getItems().addAll(undo, changeDifficulty, advanced);
 		
 		
 		Menu help = new Menu("Help");
@@ -636,22 +680,27 @@ public class ConnectFourGUI extends Application{
 		suggestMove.setOnAction((event) -> {
             
             int tempMove = 0;
+            String scoreText = "";
             try{
             	ComputerPlayer tempPlayer = new ComputerPlayer(gameBoard.isRedTurn());
-            	tempMove = 1 + tempPlayer.getEvenBetterMove(gameBoard, (int)(ply/1.5));
+            	double[] scores = tempPlayer.getMoveScores(gameBoard, (int)(ply/1.5)); //one search scores every column
+            	tempMove = 1 + tempPlayer.selectBestMove(scores);
+            	for(int c = 0; c < scores.length; ++c){
+            		scoreText += (c + 1) + ": " + (Double.isNaN(scores[c])? "-" : String.format("%.2f", scores[c])) + (c % 4 == 3? "\n" : "   ");
+            	}
             } catch(NullPointerException e){
             	
             }
 
             VBox suggestionBox = new VBox(5);
-            suggestionBox.getChildren().add(new Label("" + tempMove));
+            suggestionBox.getChildren().addAll(new Label("" + tempMove), new Label(scoreText));
             suggestionBox.setAlignment(Pos.CENTER);
 
 			Stage dialog = new Stage();
             dialog.initOwner(primaryStage);
             dialog.getIcons().add(raiseFlag());
             dialog.setTitle("Suggestion");
-            dialog.setScene(new Scene(suggestionBox, 220, 40));
+            dialog.setScene(new Scene(suggestionBox, 260, 90));
             dialog.show();
 		});
 		
@@ -678,7 +727,48 @@ public class ConnectFourGUI extends Application{
 		help.getItems().addAll(suggestMove, rules);
 		
 		
-		mainMenu.getMenus().addAll(file, edit, help);
+		Menu view = new Menu("View");
+		
+		CheckMenuItem showAnalysis = new CheckMenuItem("Analysis");
+		showAnalysis.setOnAction((event) -> {
+			if(showAnalysis.isSelected()){
+				root.setLeft(analysisPanel.getNode());
+				analysisPanel.setRunning(true);
+			} else {
+				root.setLeft(null);
+				if(analysisWindow != null){
+					analysisWindow.close();
+				}
+				analysisPanel.setRunning(false);
+			}
+		});
+		
+		MenuItem detachAnalysis = new MenuItem("Analysis in Own Window");
+		detachAnalysis.setOnAction((event) -> {
+			if(analysisWindow != null){
+				return; //already has its own window
+			}
+			showAnalysis.setSelected(true);
+			analysisPanel.setRunning(true);
+			root.setLeft(null);
+			analysisWindow = new Stage();
+			analysisWindow.initOwner(primaryStage);
+			analysisWindow.getIcons().add(raiseFlag());
+			analysisWindow.setTitle("Analysis");
+			analysisWindow.setScene(new Scene(new VBox(analysisPanel.getNode()), 200, 330));
+			analysisWindow.setOnHidden((hiddenEvent) -> {
+				analysisWindow = null;
+				if(showAnalysis.isSelected()){
+					root.setLeft(analysisPanel.getNode()); //closing the window docks the panel again
+				}
+			});
+			analysisWindow.show();
+		});
+		
+		view.getItems().addAll(showAnalysis, detachAnalysis);
+		
+		
+		mainMenu.getMenus().addAll(file, edit, view, help);
 		
 		return mainMenu;
 	}
@@ -704,45 +794,36 @@ public class ConnectFourGUI extends Application{
 		difficulty.setOnMouseDragged((subEvent) -> {
 			ply = (int)difficulty.getValue();
 		});
-		Label disclaimer = new Label("Higher difficulties will result in increasingly \n"
-									+ "large amount of time used per turn");
+		Label disclaimer = new Label("Without a clock, higher difficulties will result in \n"
+									+ "increasingly large amount of time used per turn");
+		
+		Label clockLabel               = new Label("Clock:");
+		ChoiceBox<String> timeControls = new ChoiceBox<String>();
+		for(TimeControl control : TimeControl.values()){
+			timeControls.getItems().add(control.toString());
+		}
+		timeControls.getSelectionModel().select(timeControl.ordinal());
+		timeControls.getSelectionModel().selectedIndexProperty().addListener(new ChangeListener<Number>() {
+			@Override
+			public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
+				timeControl = TimeControl.values()[newValue.intValue()]; //takes effect in the next game
+			}
+		});
+		HBox clockBox = new HBox(5);
+		clockBox.getChildren().addAll(clockLabel, timeControls);
+		clockBox.setAlignment(Pos.CENTER);
 
 		HBox difficultySliderBox = new HBox(5);
 		VBox difficultyBox       = new VBox(10);
 		difficultySliderBox.getChildren().addAll(difficultyLabel, difficulty);
 		difficultySliderBox.setAlignment(Pos.CENTER);
 		difficultyBox.setPadding(new Insets(20));
-		difficultyBox.getChildren().addAll(difficultySliderBox, disclaimer);
+		difficultyBox.getChildren().addAll(difficultySliderBox, clockBox, disclaimer);
 		difficultyBox.setAlignment(Pos.CENTER);
 
 		return difficultyBox;
 	}
 
-	/**
-	 * Completely refreshes the view by deleting all images then re-adding them where they should be.
-	 * 
-	 * @param primaryStage The primary Stage of the entire application
-	 */
-	private void redraw(Stage primaryStage) {
-		board.getChildren().clear();
-		setUpBoard(primaryStage);
-		
-		ImageView tempImg;
-		for(int col = 0; col < 7; ++col){
-			for(int row = 0; row < 6; ++row){
-				if(gameBoard.getBoard()[row][col] == -1){
-					StackPane temp = (StackPane)getNodeByCoordinate(col, 5-row);
-					tempImg = new ImageView(p2Piece);
-					temp.getChildren().add(tempImg);
-				} else if(gameBoard.getBoard()[row][col] == 1){
-					StackPane temp = (StackPane)getNodeByCoordinate(col, 5-row);
-					tempImg = new ImageView(p1Piece);
-					temp.getChildren().add(tempImg);
-				}
-			}
-		}
-	}
-
 	/**
 	 * Creates a GUI element that labels the column coordinates of the game board
 	 * 
@@ -779,53 +860,40 @@ public class ConnectFourGUI extends Application{
 	}
 
 	/**
-	 * Creates the image of the game board and creates the infrastructure for running the game
+	 * Plays a move in the clicked column, then lets the computer reply if it is playing
 	 * 
 	 * @param primaryStage The primary Stage of the entire application
+	 * @param column Column that was clicked
 	 */
-	private void setUpBoard(Stage primaryStage) {
-		StackPane temp;
-		ImageView tempImg;
-		
-		for(int col = 0; col < 7; ++col){
-			for(int row = 0; row < 6; ++row){
-				tempImg = new ImageView(square);
-				tempImg.setMouseTransparent(true);
-				temp = new StackPane(tempImg);
-				temp.setOnMouseClicked((event) -> {
-					setDisable(true);
+	private void columnClicked(Stage primaryStage, int column) {
+		setDisable(true);
+		try{
+			move = column;
+			playTurn(primaryStage);
+			
+			if(p1isHuman ^ p2isHuman){
+				Thread taskThread = new Thread( () -> {
 					try{
-						move = GridPane.getColumnIndex((Node)event.getSource());
-						playTurn(primaryStage);
+						move = computerMove(gameBoard);
 						
-						if(p1isHuman ^ p2isHuman){
-							Thread taskThread = new Thread( () -> {
-								try{
-									ComputerPlayer computer = new ComputerPlayer(gameBoard.isRedTurn());
-									move = computer.getEvenBetterMove(gameBoard, ply);
-									
-									Platform.runLater(new Runnable() {
-										@Override
-										public void run() {
-											playTurn(primaryStage);
-											setDisable(false);
-										}
-									});
-								}catch(IndexOutOfBoundsException e){
-									//game ended
-								}
-							});
-							taskThread.start();
-						} else{
-							setDisable(false);
-						}
-					}catch(ArrayIndexOutOfBoundsException e){
-						//tried to place piece above the board, ignore and move on
-						setDisable(false);
+						Platform.runLater(new Runnable() {
+							@Override
+							public void run() {
+								playTurn(primaryStage);
+								setDisable(false);
+							}
+						});
+					}catch(IndexOutOfBoundsException e){
+						//game ended
 					}
 				});
-				board.add(temp, col, row);
+				taskThread.start();
+			} else{
+				setDisable(false);
 			}
+		}catch(ArrayIndexOutOfBoundsException e){
+			//tried to place piece above the board, ignore and move on
+			setDisable(false);
 		}
 	}
 	
@@ -835,72 +903,25 @@ public class ConnectFourGUI extends Application{
 	 * @param disabled Value to set interactivity to
 	 */
 	private void setDisable(boolean disabled){
-		for(Node n : board.getChildren()){
-			n.setDisable(disabled);
-		}
+		boardView.setDisable(disabled);
 	}
 
 	/**
 	 * Loads all images into global cache to be used elsewhere.
 	 */
 	private void loadImages() {
-		String separator = File.separator;
-		File square      = new File("src" + separator + "connectfour" + separator + "util" + separator + "images" + separator + "square.png");
-		File p1Piece     = new File("src" + separator + "connectfour" + separator + "util" + separator + "images" + separator + "p1Piece.png");
-		File p2Piece     = new File("src" + separator + "connectfour" + separator + "util" + separator + "images" + separator + "p2Piece.png");
-		
-		InputStream inputStream = null;
-		try{
-			inputStream  = new FileInputStream(square);
-			this.square  = new Image(inputStream);
-			
-			inputStream  = new FileInputStream(p2Piece);
-			this.p2Piece = new Image(inputStream);
-			
-			inputStream  = new FileInputStream(p1Piece);
-			this.p1Piece = new Image(inputStream);
-			
-		}catch(IOException e){
-			
-		}
+		this.square  = ImageCache.getSquare();
+		this.p1Piece = ImageCache.getPiece(PieceTheme.RED);
+		this.p2Piece = ImageCache.getPiece(PieceTheme.BLACK);
 	}
 	
-	/**
-	 * Utility function to locate a node in a GridPane by a particular pair of coordinates
-	 * 
-	 * @param x X coordinate of desired Node
-	 * @param y Y coordinate of desired Node
-	 * @return Returns the desired Node
-	 */
-	private Node getNodeByCoordinate(int x, int y){ //there has to be a better way to do this
-		Node temp = null;
-		for(Node node : board.getChildren()){ 
-			int nodeX = GridPane.getColumnIndex(node);
-			int nodeY = GridPane.getRowIndex(node);
-			if(x == nodeX && y == nodeY){
-				temp = node;
-				break;
-			}
-		}
-		return temp;
-	}
-
 	/**
 	 * Creates a GUI element to be placed in the sidebar, for purpose of promoting the correct aesthetic atmosphere of the game.
 	 * 
 	 * @return GUI sidebar element
 	 */
 	private Node makeSideView(){
-		String separator  = File.separator;
-		File portraitFile = new File("src" + separator + "connectfour" + separator + "util" + separator + "images" + separator + "PlayerPortrait.png");
-		Image portraitImg = null;
-		try{
-			InputStream input = new FileInputStream(portraitFile);
-			portraitImg       = new Image(input);
-		}catch(IOException e){
-			
-		}
-		ImageView portraitView = new ImageView(portraitImg);
+		ImageView portraitView = new ImageView(ImageCache.getPortrait());
 		VBox portrait          = new VBox(portraitView);
 		portrait.setAlignment(Pos.CENTER);
 		
@@ -949,8 +970,11 @@ public class ConnectFourGUI extends Application{
 		});
 		quoteManager.start();
 
+		redClockLabel    = new Label();
+		yellowClockLabel = new Label();
+		
 		VBox playerView = new VBox(10);
-		playerView.getChildren().addAll(portrait, quoteField);
+		playerView.getChildren().addAll(portrait, quoteField, redClockLabel, yellowClockLabel);
 		playerView.setPrefWidth(175);
 		playerView.setPadding(new Insets(35, 10, 35, 10));
 		return playerView;
@@ -963,20 +987,7 @@ public class ConnectFourGUI extends Application{
 	 * @return Returns the Empire's flag
 	 */
 	private Image raiseFlag() {
-		String separator  = File.separator;
-		File flagFile     = new File("src" + separator + "connectfour" + separator + "util" + separator + "images" + separator + "Flag.png");
-		InputStream input = null;
-		Image flag        = null;
-		try{
-			input = new FileInputStream(flagFile);
-			flag  = new Image(input);
-			input.close();
-		}catch(FileNotFoundException e){
-			System.out.println("no file");
-		}catch(IOException e){
-			System.out.println("Other err");
-		}
-		return flag;
+		return ImageCache.getFlag();
 	}
 	
 	public static void main(String[] args) {
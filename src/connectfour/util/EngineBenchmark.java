@@ -0,0 +1,274 @@
+package connectfour.util;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.ComputerPlayer;
+import connectfour.analysis.ComputerPlayer.SearchMode;
+import connectfour.analysis.EvaluationCache;
+import connectfour.analysis.SharedTranspositionTable;
+import connectfour.analysis.TranspositionTable;
+
+/**
+ * Measures how much work the computer player does on a fixed set of positions, for comparing search changes against each other.
+ *
+ * @author Folz
+ *
+ */
+public class EngineBenchmark {
+	/**
+	 * Standard positions, given as the moves played from the empty board.
+	 */
+	static final String[] POSITIONS = {
+			"",
+			"3",
+			"33",
+			"3332",
+			"334425",
+			"2345432",
+			"33224411",
+			"303030",
+			"24335160",
+			"34231425",
+			"001122",
+			"3334442225",
+			"6543210",
+			"3324435566",
+	};
+
+	public static void main(String... args) throws InterruptedException{
+		if(args.length > 0 && args[0].equals("hash")){
+			int maxThreads = args.length > 1? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+			stressSharedTable(Math.max(4, maxThreads));
+			for(int threads = 1; threads <= maxThreads; threads *= 2){
+				benchmarkSharedTable(threads);
+			}
+			return;
+		}
+		if(args.length > 0 && args[0].equals("clock")){
+			long initialMillis   = args.length > 1? Long.parseLong(args[1]) : 10_000;
+			long incrementMillis = args.length > 2? Long.parseLong(args[2]) : 100;
+			int games            = args.length > 3? Integer.parseInt(args[3]) : 4;
+			benchmarkTimeControl(initialMillis, incrementMillis, games);
+			return;
+		}
+		if(args.length > 0 && args[0].equals("evalcache")){
+			benchmarkEvaluationCache(args.length > 1? Integer.parseInt(args[1]) : 8);
+			return;
+		}
+		int depth = args.length > 0? Integer.parseInt(args[0]) : 8;
+
+		System.out.println("Search window benchmark, depth " + depth + ", " + POSITIONS.length + " positions");
+		for(SearchMode mode : SearchMode.values()){
+			benchmarkSearchMode(mode, depth, null);
+		}
+		
+		TranspositionTable table = TranspositionTable.fromSystemProperties();
+		System.out.println("With " + table.getClass().getSimpleName() + ", " + table.getCapacity() + " entries");
+		for(SearchMode mode : SearchMode.values()){
+			benchmarkSearchMode(mode, depth, table);
+		}
+	}
+
+	/**
+	 * Runs an iterative deepening search on every standard position and prints the nodes searched to complete each depth.
+	 *
+	 * @param mode Search window mode to measure.
+	 * @param depth Deepest depth to search to.
+	 * @param table Transposition table to search with, cleared before each position, or null to search without one.
+	 */
+	private static void benchmarkSearchMode(SearchMode mode, int depth, TranspositionTable table) {
+		long[] nodesPerDepth = new long[depth + 1];
+		long totalNodes = 0;
+		long startTime  = System.currentTimeMillis();
+
+		for(String moves : POSITIONS){
+			Board board = Board.fromMoves(moves);
+			ComputerPlayer player = new ComputerPlayer(board.isRedTurn());
+			player.setSearchMode(mode);
+			if(table != null){
+				table.clear();
+				player.setTranspositionTable(table);
+			}
+
+			final long[] previousNodes = {0};
+			player.getEvenBetterMove(board, depth, (info) -> {
+				nodesPerDepth[info.getDepth()] += info.getNodes() - previousNodes[0];
+				previousNodes[0] = info.getNodes();
+			});
+			totalNodes += player.getNodes();
+		}
+
+		String str = String.format("%-12s total nodes %,12d  time %,7d ms  nodes per depth:", mode, totalNodes, System.currentTimeMillis() - startTime);
+		for(int d = 1; d <= depth; ++d){
+			str += " " + nodesPerDepth[d];
+		}
+		System.out.println(str);
+	}
+
+	/**
+	 * Runs the search benchmark with and without the evaluation cache, twice over so both get a warmed up JIT, and prints the hit rate.  The node
+	 * counts should match, since a cached score is the same as a computed one.
+	 *
+	 * @param depth Deepest depth to search to.
+	 */
+	private static void benchmarkEvaluationCache(int depth){
+		EvaluationCache cache = EvaluationCache.getActive();
+		if(cache == null){
+			cache = new EvaluationCache(1 << 16);
+		}
+		TranspositionTable table = TranspositionTable.fromSystemProperties();
+		System.out.println("Evaluation cache benchmark, depth " + depth + ", " + POSITIONS.length + " positions, " + cache.getCapacity() + " entries");
+		for(int round = 0; round < 2; ++round){
+			for(boolean cached : new boolean[]{false, true}){
+				EvaluationCache.setActive(cached? cache : null);
+				cache.clear();
+				cache.resetStatistics();
+				System.out.println(cached? "Cached:" : "Not cached:");
+				benchmarkSearchMode(SearchMode.FULL_WINDOW, depth, null);
+				benchmarkSearchMode(SearchMode.FULL_WINDOW, depth, table);
+				if(cached){
+					System.out.println("  " + cache);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plays the computer against itself from every standard position with a game clock, and prints how each player spent its time.  A player that
+	 * runs out of time loses at once, which shouldn't ever happen.
+	 *
+	 * @param initialMillis Time each player starts with.
+	 * @param incrementMillis Time added after each move.
+	 * @param games Number of standard positions to start games from.
+	 */
+	private static void benchmarkTimeControl(long initialMillis, long incrementMillis, int games){
+		System.out.println("Time control benchmark, " + initialMillis + " ms + " + incrementMillis + " ms per move");
+		int flagged = 0;
+		for(int g = 0; g < games && g < POSITIONS.length; ++g){
+			Board board     = Board.fromMoves(POSITIONS[g]);
+			GameClock clock = new GameClock(initialMillis, incrementMillis);
+			long longestMove = 0;
+			int moves       = 0;
+			int maxDepth    = 0;
+			long depthTotal = 0;
+			clock.start(board.isRedTurn());
+			while(Math.abs(board.getValue()) <= 1_000 && board.getNumOfMoves() < Board.NUM_ROWS * Board.NUM_COLUMNS){
+				boolean red = board.isRedTurn();
+				ComputerPlayer player = new ComputerPlayer(red);
+				int[] depth = {0};
+				long moveStart = System.currentTimeMillis();
+				int move = player.getTimedMove(board, clock.getRemainingMillis(red), incrementMillis, (info) -> depth[0] = info.getDepth());
+				longestMove = Math.max(longestMove, System.currentTimeMillis() - moveStart);
+				if(!clock.press()){
+					++flagged;
+					System.out.println("  " + (red? "red" : "yellow") + " ran out of time");
+					break;
+				}
+				board       = new Board(board, move);
+				maxDepth    = Math.max(maxDepth, depth[0]);
+				depthTotal += depth[0];
+				++moves;
+			}
+			clock.stop();
+			System.out.println(String.format("  from \"%s\": %d moves, left red %s yellow %s, longest move %d ms, depth avg %.1f max %d",
+					POSITIONS[g], moves, GameClock.format(clock.getRemainingMillis(true)), GameClock.format(clock.getRemainingMillis(false)),
+					longestMove, (double)depthTotal / Math.max(1, moves), maxDepth));
+		}
+		System.out.println(flagged + " games lost on time");
+	}
+
+	/**
+	 * Has several threads hammer a small shared table with stores and probes, checking every hit belongs to the key that was probed.
+	 * Every stored entry is made from its key, so an entry that doesn't match means a torn write got through.
+	 *
+	 * @param threadCount Number of threads to run at once.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	private static void stressSharedTable(int threadCount) throws InterruptedException{
+		SharedTranspositionTable table = new SharedTranspositionTable(1);
+		AtomicLong hits   = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; ++t){
+			final long seed = t;
+			threads[t] = new Thread(() -> {
+				Random random = new Random(seed);
+				for(int i = 0; i < 2_000_000; ++i){
+					long key = 1 + random.nextInt(1 << 18); //more keys than slots so threads fight over them
+					if(random.nextBoolean()){
+						table.store(key, entryForKey(key));
+					} else {
+						long entry = table.probe(key);
+						if(entry != TranspositionTable.NO_ENTRY){
+							hits.incrementAndGet();
+							if(entry != entryForKey(key)){
+								errors.incrementAndGet();
+							}
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+		System.out.println("Shared table stress, " + threadCount + " threads: " + hits.get() + " hits, " + errors.get() + " inconsistent entries");
+	}
+
+	private static long entryForKey(long key){
+		return TranspositionTable.pack(key % 10_000, (int)(key % 64), (int)(key % 3), (int)(key % 7));
+	}
+
+	/**
+	 * Measures probes and stores per second with the given number of threads sharing one table.  Keys are drawn from four times as many positions
+	 * as the table holds, so probes hit as well as miss.  Every probed entry goes into a checksum that is printed with the hits, so none of the
+	 * probes can be optimized away.
+	 *
+	 * @param threadCount Number of threads to run at once.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	private static void benchmarkSharedTable(int threadCount) throws InterruptedException{
+		SharedTranspositionTable table = new SharedTranspositionTable(64);
+		int operations  = 10_000_000;
+		Thread[] threads = new Thread[threadCount];
+		AtomicLong checksum = new AtomicLong();
+		AtomicLong hits     = new AtomicLong();
+		int keyRange        = (int)Math.min(1 << 30, table.getCapacity() * 4);
+		long startTime  = System.nanoTime();
+
+		for(int t = 0; t < threadCount; ++t){
+			final long seed = t;
+			threads[t] = new Thread(() -> {
+				Random random = new Random(seed);
+				long sum   = 0;
+				long found = 0;
+				for(int i = 0; i < operations; ++i){
+					long key = 1 + random.nextInt(keyRange);
+					if((i & 3) == 0){
+						table.store(key, entryForKey(key));
+					} else {
+						long entry = table.probe(key);
+						if(entry != TranspositionTable.NO_ENTRY){
+							++found;
+							sum += entry;
+						}
+					}
+				}
+				checksum.addAndGet(sum);
+				hits.addAndGet(found);
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.println(String.format("Shared table, %2d threads: %,8.1f million operations/s, %,d hits (checksum %016x)", threadCount,
+				threadCount * (double)operations / seconds / 1e6, hits.get(), checksum.get()));
+	}
+
+}
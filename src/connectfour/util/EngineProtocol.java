@@ -0,0 +1,248 @@
+package connectfour.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.ComputerPlayer;
+import connectfour.analysis.SearchInfo;
+import connectfour.analysis.SearchListener;
+import connectfour.analysis.TranspositionTable;
+
+/**
+ * Plays as an engine for a program that runs it and talks to it over standard input and output, one command per line, in the style of UCI.
+ *
+ * Commands:
+ * <pre>
+ * uci                                  answered with "id name", "id author" and "uciok"
+ * isready                              answered with "readyok" at once, even while a search runs
+ * ucinewgame                           forgets what was learned in the last game
+ * position startpos [moves 3 3 4 2]    sets the position, moves given as columns 0 to 6
+ * position moves 3342                  the same, as one string of columns like {@link Board#fromMoves(String)}
+ * go [depth n] [nodes n] [movetime ms] [rtime ms] [ytime ms] [rinc ms] [yinc ms] [infinite]
+ * stop                                 stops the search, which answers with its best move
+ * quit
+ * </pre>
+ * wtime, btime, winc and binc are understood as the red and yellow clocks.  A search sends an "info" line after every depth and ends with
+ * "bestmove n".  As in UCI, the score in an info line is from the point of view of the side to move, so a positive score is good for whoever is
+ * searching, while the rest of the program scores boards from red's point of view.  Only the search runs on another thread, so "stop" and
+ * "isready" are answered while it searches.  Output is buffered and flushed after each line, and the board is never printed.
+ *
+ * @author Folz
+ *
+ */
+public class EngineProtocol {
+	private static final String ENGINE_NAME = "ConnectFour";
+
+	private final BufferedReader in;
+	private final PrintWriter out;
+	private final TranspositionTable table;
+	private Board board;
+	private volatile ComputerPlayer searcher;
+	private volatile boolean stopRequested;
+	private Thread searchThread;
+
+	/**
+	 * @param in Commands from the controlling program.
+	 * @param out Replies to the controlling program.
+	 */
+	public EngineProtocol(InputStream in, OutputStream out){
+		this.in    = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+		this.out   = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 16));
+		this.table = TranspositionTable.fromSystemProperties();
+		this.board = new Board();
+	}
+
+	/**
+	 * Reads and carries out commands until "quit" or the end of input.
+	 *
+	 * @throws IOException if reading the commands fails.
+	 */
+	public void run() throws IOException{
+		String line;
+		while((line = in.readLine()) != null){
+			String[] words = line.trim().split("\\s+");
+			switch(words[0]){
+			case "uci":
+				send("id name " + ENGINE_NAME);
+				send("id author Folz");
+				send("uciok");
+				break;
+			case "isready":
+				send("readyok");
+				break;
+			case "ucinewgame":
+				waitForSearch();
+				table.clear();
+				board = new Board();
+				break;
+			case "position":
+				waitForSearch();
+				setPosition(words);
+				break;
+			case "go":
+				waitForSearch();
+				go(words);
+				break;
+			case "stop":
+				stopSearch();
+				break;
+			case "quit":
+				stopSearch();
+				waitForSearch();
+				return;
+			case "":
+				break;
+			default:
+				send("info string unknown command " + words[0]);
+			}
+		}
+		stopSearch();
+		waitForSearch();
+	}
+
+	private synchronized void send(String line){
+		out.println(line);
+		out.flush();
+	}
+
+	/**
+	 * Sets the position from "position startpos moves ..." or "position moves ...".
+	 */
+	private void setPosition(String[] words){
+		Board position = new Board();
+		boolean inMoves = false;
+		for(int i = 1; i < words.length; ++i){
+			if(words[i].equals("moves")){
+				inMoves = true;
+			} else if(inMoves){
+				for(char column : words[i].toCharArray()){ //each word may hold one move or a whole string of them
+					int move = column - '0';
+					if(move < 0 || move >= Board.NUM_COLUMNS || !position.getLegalColumns()[move]){
+						send("info string illegal move " + column + " ignored, position stops before it");
+						board = position;
+						return;
+					}
+					position = new Board(position, move);
+				}
+			}
+		}
+		board = position;
+	}
+
+	/**
+	 * Starts searching the current position with the limits given to "go".
+	 */
+	private void go(String[] words){
+		int depth           = Board.NUM_ROWS * Board.NUM_COLUMNS - board.getNumOfMoves();
+		long nodes          = Long.MAX_VALUE;
+		long moveTime       = -1;
+		long[] clock        = {-1, -1}; //red, yellow
+		long[] increment    = {0, 0};
+		boolean infinite    = false;
+		for(int i = 1; i < words.length; ++i){
+			String limit = words[i];
+			long value   = i + 1 < words.length && words[i + 1].matches("\\d+")? Long.parseLong(words[i + 1]) : -1;
+			switch(limit){
+			case "depth":    depth        = (int)Math.min(depth, value); break;
+			case "nodes":    nodes        = value; break;
+			case "movetime": moveTime     = value; break;
+			case "rtime":
+			case "wtime":    clock[0]     = value; break;
+			case "ytime":
+			case "btime":    clock[1]     = value; break;
+			case "rinc":
+			case "winc":     increment[0] = value; break;
+			case "yinc":
+			case "binc":     increment[1] = value; break;
+			case "infinite": infinite     = true; continue;
+			default:         continue;
+			}
+			++i; //skip the value
+		}
+
+		Board position        = board;
+		int side              = position.isRedTurn()? 0 : 1;
+		ComputerPlayer player = new ComputerPlayer(position.isRedTurn());
+		player.setTranspositionTable(table);
+		player.setNodeLimit(nodes > 0? nodes : Long.MAX_VALUE);
+		searcher      = player;
+		stopRequested = false;
+
+		int maxDepth          = Math.max(1, depth);
+		long searchTime       = infinite? -1 : moveTime;
+		boolean timed         = !infinite && moveTime < 0 && clock[side] >= 0;
+		long remaining        = clock[side];
+		long inc              = increment[side];
+		searchThread = new Thread(() -> {
+			SearchListener listener = (info) -> {
+				sendInfo(info, position.isRedTurn());
+				if(stopRequested){
+					player.stop(); //"stop" came before the search started and was cleared by it
+				}
+			};
+			int move;
+			if(position.generateMoveList().isEmpty() || Math.abs(position.getValue()) > 1_000){
+				move = -1; //the game is over
+			} else if(timed){
+				move = player.getTimedMove(position, remaining, inc, listener);
+			} else if(searchTime >= 0){
+				move = player.getMoveInTime(position, maxDepth, searchTime, listener);
+			} else {
+				move = player.getEvenBetterMove(position, maxDepth, listener);
+			}
+			send("bestmove " + (move < 0? "none" : Integer.toString(move)));
+		}, "search");
+		searchThread.start();
+	}
+
+	private void sendInfo(SearchInfo info, boolean redToMove){
+		StringBuilder line = new StringBuilder(64);
+		line.append("info depth ").append(info.getDepth())
+		    .append(" score ").append(String.format("%.3f", redToMove? info.getScore() : -info.getScore()))
+		    .append(" nodes ").append(info.getNodes())
+		    .append(" time ").append(info.getElapsedMillis())
+		    .append(" nps ").append(info.getNodes() * 1_000 / Math.max(1, info.getElapsedMillis()))
+		    .append(" pv");
+		for(int move : info.getPrincipalVariation()){
+			line.append(' ').append(move);
+		}
+		send(line.toString());
+	}
+
+	private void stopSearch(){
+		stopRequested = true;
+		ComputerPlayer player = searcher;
+		if(player != null){
+			player.stop();
+		}
+	}
+
+	private void waitForSearch(){
+		if(searchThread == null) return;
+		try{
+			searchThread.join();
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		searchThread = null;
+		searcher     = null;
+	}
+
+	/**
+	 * Runs the engine on standard input and output.
+	 *
+	 * @param args Unused.
+	 * @throws IOException if standard input can't be read.
+	 */
+	public static void main(String... args) throws IOException{
+		new EngineProtocol(System.in, System.out).run();
+	}
+}
@@ -0,0 +1,415 @@
+package connectfour.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.ComputerPlayer;
+import connectfour.analysis.EvaluationWeights;
+import connectfour.analysis.TranspositionTable;
+
+/**
+ * Fits the weights of {@link Board#evaluateScore()} to the results of real games, in the style of the Texel tuning method.
+ *
+ * Each position is labeled with the result of the game it came from.  The evaluation is turned into an expected result with a logistic curve, and the
+ * weights are moved to make the mean squared difference between expected and actual results as small as possible.  Away from four in a row the
+ * evaluation is a sum of weights times counts, so every position is reduced once to its counts: pieces on each square, with a square and its mirror
+ * image sharing a weight, the two kinds of row of four, and the side to move.  The loss and its gradient are then worked out by a pool of threads, each over its own
+ * slice of the positions, and the weights are stepped with Adam.  A tenth of the games is held back, and the weights that do best on those are the
+ * ones written out.  The win bonus isn't tuned, since positions that are already won aren't used.
+ *
+ * Games come from a file with one game per line, its moves then R, Y or D for the result, which the generate command makes by having the computer
+ * play itself from random openings, or from the game journal of a server.  The tuned weights are written as a parameter file that
+ * {@link EvaluationWeights#load(Path)} reads, such as through the connectfour.eval.weights system property.
+ *
+ * @author Folz
+ *
+ */
+public class EvaluationTuner {
+	private static final int MIRROR_COLUMNS   = (Board.NUM_COLUMNS + 1) / 2;
+	private static final int SQUARE_FEATURES  = Board.NUM_ROWS * MIRROR_COLUMNS;
+	private static final int THREE_FEATURE    = SQUARE_FEATURES;
+	private static final int TWO_FEATURE      = SQUARE_FEATURES + 1;
+	private static final int TEMPO_FEATURE    = SQUARE_FEATURES + 2;
+	private static final int FEATURES         = SQUARE_FEATURES + 3;
+	private static final int OPENING_PLIES    = 4;   //positions this early say little about who wins
+	private static final int VALIDATION_EVERY = 10;  //every tenth game is held back
+	private static final double LEARNING_RATE = 0.02;
+	private static final double MIN_SCALE     = 0.1;
+	private static final double MAX_SCALE     = 10;
+	private static final int REPORT_EVERY     = 50;
+
+	private final int threads;
+	private final ExecutorService pool;
+
+	/**
+	 * Positions reduced to their feature counts, with the result of their game.
+	 */
+	private static class Positions {
+		byte[] features = new byte[FEATURES * 1024];
+		float[] results = new float[1024];
+		int count;
+
+		void add(byte[] counts, float result){
+			if(count == results.length){
+				features = Arrays.copyOf(features, features.length * 2);
+				results  = Arrays.copyOf(results, results.length * 2);
+			}
+			System.arraycopy(counts, 0, features, count * FEATURES, FEATURES);
+			results[count++] = result;
+		}
+	}
+
+	/**
+	 * @param threads Number of threads working out the loss.
+	 */
+	public EvaluationTuner(int threads){
+		this.threads = Math.max(1, threads);
+		this.pool    = Executors.newFixedThreadPool(this.threads, (runnable) -> {
+			Thread thread = new Thread(runnable, "tuner");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Tunes weights to a set of games.
+	 *
+	 * @param games Games, each its moves and then R, Y or D.
+	 * @param start Weights to start from.  Its win bonus is kept.
+	 * @param epochs Number of steps over every position.
+	 * @return The tuned weights.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public EvaluationWeights tune(List<String> games, EvaluationWeights start, int epochs) throws InterruptedException{
+		Positions training   = new Positions();
+		Positions validation = new Positions();
+		for(int g = 0; g < games.size(); ++g){
+			addGame(games.get(g), g % VALIDATION_EVERY == 0? validation : training);
+		}
+		System.out.println(String.format("%,d training positions, %,d validation positions", training.count, validation.count));
+
+		double[] weights = toVector(start);
+		double scale     = fitScale(training, weights);
+		System.out.println(String.format("Scale %.4f, loss %.6f training, %.6f validation", scale, loss(training, weights, scale, null),
+				loss(validation, weights, scale, null)));
+
+		double[] moment   = new double[FEATURES];
+		double[] velocity = new double[FEATURES];
+		double[] gradient = new double[FEATURES];
+		double[] best     = weights.clone();
+		double bestLoss   = loss(validation, weights, scale, null);
+		for(int epoch = 1; epoch <= epochs; ++epoch){
+			double trainingLoss = loss(training, weights, scale, gradient);
+			for(int f = 0; f < FEATURES; ++f){
+				moment[f]   = 0.9 * moment[f] + 0.1 * gradient[f];
+				velocity[f] = 0.999 * velocity[f] + 0.001 * gradient[f] * gradient[f];
+				double m    = moment[f] / (1 - Math.pow(0.9, epoch));
+				double v    = velocity[f] / (1 - Math.pow(0.999, epoch));
+				weights[f] -= LEARNING_RATE * m / (Math.sqrt(v) + 1e-8);
+			}
+			double validationLoss = loss(validation, weights, scale, null);
+			if(validationLoss < bestLoss){
+				bestLoss = validationLoss;
+				best     = weights.clone();
+			}
+			if(epoch % REPORT_EVERY == 0 || epoch == epochs){
+				System.out.println(String.format("  epoch %4d: loss %.6f training, %.6f validation", epoch, trainingLoss, validationLoss));
+			}
+		}
+		System.out.println(String.format("Best validation loss %.6f", bestLoss));
+		return fromVector(best, start.getWinBonus());
+	}
+
+	/**
+	 * Reduces every position of a game after the opening, up to the position before the game was won, to its feature counts.
+	 */
+	private static void addGame(String game, Positions positions){
+		char outcome = game.charAt(game.length() - 1);
+		float result = outcome == 'R'? 1 : outcome == 'Y'? 0 : 0.5f;
+		Board board  = new Board();
+		byte[] counts = new byte[FEATURES];
+		for(int i = 0; i < game.length() - 1; ++i){
+			board = new Board(board, game.charAt(i) - '0');
+			if(Math.abs(board.getValue()) > 1_000) break;
+			if(board.getNumOfMoves() < OPENING_PLIES) continue;
+			countFeatures(board, counts);
+			positions.add(counts, result);
+		}
+	}
+
+	/**
+	 * Counts the features of a position that isn't won, so the dot product of the counts with {@link #toVector(EvaluationWeights)} is its score.
+	 */
+	static void countFeatures(Board board, byte[] counts){
+		Arrays.fill(counts, (byte)0);
+		byte[][] squares = board.getBoard();
+		for(int r = 0; r < Board.NUM_ROWS; ++r){
+			for(int c = 0; c < Board.NUM_COLUMNS; ++c){
+				counts[squareFeature(r, c)] += squares[r][c];
+			}
+		}
+		int[] windows = board.countWindows();
+		counts[THREE_FEATURE] = (byte)windows[3];
+		counts[TWO_FEATURE]   = (byte)windows[2];
+		counts[TEMPO_FEATURE] = (byte)(board.isRedTurn()? 1 : -1);
+	}
+
+	private static int squareFeature(int row, int column){
+		return row * MIRROR_COLUMNS + Math.min(column, Board.NUM_COLUMNS - 1 - column);
+	}
+
+	private static double[] toVector(EvaluationWeights weights){
+		double[] vector = new double[FEATURES];
+		for(int r = 0; r < Board.NUM_ROWS; ++r){
+			for(int c = 0; c < MIRROR_COLUMNS; ++c){
+				vector[squareFeature(r, c)] = (weights.getSquare(r, c) + weights.getSquare(r, Board.NUM_COLUMNS - 1 - c)) / 2;
+			}
+		}
+		vector[THREE_FEATURE] = weights.getThreeWeight();
+		vector[TWO_FEATURE]   = weights.getTwoWeight();
+		vector[TEMPO_FEATURE] = weights.getTempo();
+		return vector;
+	}
+
+	private static EvaluationWeights fromVector(double[] vector, double winBonus){
+		double[][] square = new double[Board.NUM_ROWS][Board.NUM_COLUMNS];
+		for(int r = 0; r < Board.NUM_ROWS; ++r){
+			for(int c = 0; c < Board.NUM_COLUMNS; ++c){
+				square[r][c] = round(vector[squareFeature(r, c)]);
+			}
+		}
+		return new EvaluationWeights(square, winBonus, round(vector[THREE_FEATURE]), round(vector[TWO_FEATURE]), round(vector[TEMPO_FEATURE]));
+	}
+
+	private static double round(double weight){
+		return Math.round(weight * 10_000) / 10_000.0;
+	}
+
+	/**
+	 * Finds the scale of the logistic curve that best fits the starting weights, by golden section search over its logarithm, so tuning moves the
+	 * weights rather than just stretching them.  The scale is kept within bounds: starting weights that hardly predict results at all would
+	 * otherwise get a scale so small the weights would have to grow enormously to matter.
+	 */
+	private double fitScale(Positions positions, double[] weights) throws InterruptedException{
+		double low   = Math.log(MIN_SCALE);
+		double high  = Math.log(MAX_SCALE);
+		double ratio = (Math.sqrt(5) - 1) / 2;
+		for(int i = 0; i < 40; ++i){
+			double a = high - ratio * (high - low);
+			double b = low + ratio * (high - low);
+			if(loss(positions, weights, Math.exp(a), null) < loss(positions, weights, Math.exp(b), null)){
+				high = b;
+			} else {
+				low = a;
+			}
+		}
+		return Math.exp((low + high) / 2);
+	}
+
+	/**
+	 * Works out the mean squared error of the expected results, splitting the positions between the threads.
+	 *
+	 * @param gradient Filled with the gradient of the loss by each weight, or null if it isn't needed.
+	 * @return The loss.
+	 */
+	private double loss(Positions positions, double[] weights, double scale, double[] gradient) throws InterruptedException{
+		int slice = (positions.count + threads - 1) / threads;
+		List<Future<double[]>> parts = new ArrayList<Future<double[]>>();
+		for(int t = 0; t < threads; ++t){
+			int from = t * slice;
+			int to   = Math.min(positions.count, from + slice);
+			parts.add(pool.submit(() -> lossOfSlice(positions, from, to, weights, scale, gradient != null)));
+		}
+
+		double total = 0;
+		if(gradient != null){
+			Arrays.fill(gradient, 0);
+		}
+		try{
+			for(Future<double[]> part : parts){
+				double[] sums = part.get();
+				total += sums[FEATURES];
+				if(gradient != null){
+					for(int f = 0; f < FEATURES; ++f){
+						gradient[f] += sums[f];
+					}
+				}
+			}
+		} catch(ExecutionException e){
+			throw new IllegalStateException("Working out the loss failed", e.getCause());
+		}
+		int count = Math.max(1, positions.count);
+		if(gradient != null){
+			for(int f = 0; f < FEATURES; ++f){
+				gradient[f] /= count;
+			}
+		}
+		return total / count;
+	}
+
+	/**
+	 * @return Sums of the gradient by each weight, followed by the sum of the squared errors.
+	 */
+	private static double[] lossOfSlice(Positions positions, int from, int to, double[] weights, double scale, boolean withGradient){
+		double[] sums    = new double[FEATURES + 1];
+		byte[] features  = positions.features;
+		for(int i = from; i < to; ++i){
+			int offset = i * FEATURES;
+			double score = 0;
+			for(int f = 0; f < FEATURES; ++f){
+				score += weights[f] * features[offset + f];
+			}
+			double expected = 1 / (1 + Math.exp(-scale * score));
+			double error    = expected - positions.results[i];
+			sums[FEATURES] += error * error;
+			if(withGradient){
+				double slope = 2 * error * expected * (1 - expected) * scale;
+				for(int f = 0; f < FEATURES; ++f){
+					sums[f] += slope * features[offset + f];
+				}
+			}
+		}
+		return sums;
+	}
+
+	/**
+	 * Has the computer play itself from random openings, so there are games to tune with.
+	 *
+	 * @param games Number of games.
+	 * @param depth Depth both sides search to.
+	 * @param seed Seed of the random openings.
+	 * @return The games, each its moves and then R, Y or D.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public List<String> generateGames(int games, int depth, long seed) throws InterruptedException{
+		ThreadLocal<TranspositionTable> tables = ThreadLocal.withInitial(TranspositionTable::fromSystemProperties);
+		List<Future<String>> played = new ArrayList<Future<String>>();
+		for(int g = 0; g < games; ++g){
+			long gameSeed = seed + g;
+			played.add(pool.submit(() -> playGame(new Random(gameSeed), depth, tables.get())));
+		}
+		List<String> results = new ArrayList<String>(games);
+		try{
+			for(Future<String> game : played){
+				results.add(game.get());
+			}
+		} catch(ExecutionException e){
+			throw new IllegalStateException("A game failed", e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Plays a game that opens with two to eight random moves.
+	 */
+	private static String playGame(Random random, int depth, TranspositionTable table){
+		table.clear();
+		StringBuilder moves = new StringBuilder();
+		Board board = new Board();
+		int randomPlies = 2 + random.nextInt(7);
+		while(Math.abs(board.getValue()) <= 1_000 && board.getNumOfMoves() < Board.NUM_ROWS * Board.NUM_COLUMNS){
+			int move;
+			if(board.getNumOfMoves() < randomPlies){
+				List<Integer> legal = board.generateMoveList();
+				move = legal.get(random.nextInt(legal.size()));
+			} else {
+				ComputerPlayer player = new ComputerPlayer(board.isRedTurn());
+				player.setTranspositionTable(table);
+				move = player.getEvenBetterMove(board, Math.min(depth, Board.NUM_ROWS * Board.NUM_COLUMNS - board.getNumOfMoves()), null);
+			}
+			board = new Board(board, move);
+			moves.append(move);
+		}
+		return moves.append(board.getValue() > 1_000? 'R' : board.getValue() < -1_000? 'Y' : 'D').toString();
+	}
+
+	/**
+	 * Reads the finished games of a game journal.
+	 *
+	 * @param directory Directory of the journal.
+	 * @return The games that were won or drawn, each its moves and then R, Y or D.
+	 * @throws IOException if the journal can't be read.
+	 */
+	public static List<String> readJournal(Path directory) throws IOException{
+		List<String> games = new ArrayList<String>();
+		GameJournal.Record record = new GameJournal.Record();
+		try(GameJournalReader reader = new GameJournalReader(directory)){
+			while(reader.next(record)){
+				if(record.status != GameJournal.RED_WON && record.status != GameJournal.YELLOW_WON && record.status != GameJournal.DRAW) continue;
+				StringBuilder game = new StringBuilder(record.moveCount + 1);
+				for(int i = 0; i < record.moveCount; ++i){
+					game.append((char)('0' + record.moves[i]));
+				}
+				games.add(game.append((char)record.status).toString());
+			}
+		}
+		return games;
+	}
+
+	public void shutdown(){
+		pool.shutdown();
+	}
+
+	/**
+	 * Generates games or tunes weights.
+	 *
+	 * @param args "generate &lt;games file&gt; [games] [depth] [threads]" to play games for tuning, or "tune &lt;games file or journal directory&gt;
+	 * &lt;weights file&gt; [epochs] [threads]" to tune weights, starting from the weights in use.
+	 * @throws IOException if a file can't be read or written.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	public static void main(String... args) throws IOException, InterruptedException{
+		if(args.length >= 2 && args[0].equals("generate")){
+			int games   = args.length > 2? Integer.parseInt(args[2]) : 10_000;
+			int depth   = args.length > 3? Integer.parseInt(args[3]) : 5;
+			int threads = args.length > 4? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			EvaluationTuner tuner = new EvaluationTuner(threads);
+			long startTime = System.currentTimeMillis();
+			List<String> played = tuner.generateGames(games, depth, 1);
+			tuner.shutdown();
+			Files.write(Paths.get(args[1]), played, StandardCharsets.US_ASCII);
+			System.out.println(String.format("%,d games at depth %d in %.1f s", games, depth, (System.currentTimeMillis() - startTime) / 1e3));
+		} else if(args.length >= 3 && args[0].equals("tune")){
+			Path source  = Paths.get(args[1]);
+			int epochs   = args.length > 3? Integer.parseInt(args[3]) : 1_000;
+			int threads  = args.length > 4? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			List<String> games = Files.isDirectory(source)? readJournal(source) : readGames(source);
+			EvaluationTuner tuner = new EvaluationTuner(threads);
+			long startTime = System.currentTimeMillis();
+			EvaluationWeights tuned = tuner.tune(games, EvaluationWeights.getActive(), epochs);
+			tuner.shutdown();
+			tuned.save(Paths.get(args[2]), "Tuned on " + games.size() + " games from " + source.getFileName());
+			System.out.println(String.format("Tuned in %.1f s, written to %s", (System.currentTimeMillis() - startTime) / 1e3, args[2]));
+		} else {
+			System.err.println("Usage: EvaluationTuner generate <games file> [games] [depth] [threads]");
+			System.err.println("       EvaluationTuner tune <games file or journal directory> <weights file> [epochs] [threads]");
+		}
+	}
+
+	private static List<String> readGames(Path file) throws IOException{
+		List<String> games = new ArrayList<String>();
+		try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)){
+			String line;
+			while((line = reader.readLine()) != null){
+				line = line.trim();
+				if(line.length() > 1){
+					games.add(line);
+				}
+			}
+		}
+		return games;
+	}
+}
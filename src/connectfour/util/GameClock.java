@@ -0,0 +1,158 @@
+package connectfour.util;
+
+/**
+ * A chess clock for the two players of a game, with sudden death or increment time controls.
+ *
+ * Only the clock of the player to move runs.  When they move, the time they took comes off their clock, the increment is added, and the other
+ * player's clock starts.  A player whose clock reaches zero has lost on time.  Safe to use from any thread.
+ *
+ * @author Folz
+ *
+ */
+public class GameClock {
+	private final long initialMillis;
+	private final long incrementMillis;
+	private long redMillis;
+	private long yellowMillis;
+	private boolean redToMove;
+	private long turnStarted; //nanoTime when the running clock started, or -1 while stopped
+
+	/**
+	 * A time control.
+	 */
+	public enum TimeControl {
+		NONE("No clock", 0, 0),
+		BULLET("1 minute", 60_000, 0),
+		BLITZ("3 minutes", 180_000, 0),
+		BLITZ_INCREMENT("3 minutes + 2 seconds", 180_000, 2_000),
+		RAPID_INCREMENT("5 minutes + 3 seconds", 300_000, 3_000),
+		RAPID("10 minutes", 600_000, 0);
+
+		private final String label;
+		private final long initialMillis;
+		private final long incrementMillis;
+
+		private TimeControl(String label, long initialMillis, long incrementMillis){
+			this.label           = label;
+			this.initialMillis   = initialMillis;
+			this.incrementMillis = incrementMillis;
+		}
+
+		/**
+		 * @return A stopped clock set to this time control, or null for {@link #NONE}.
+		 */
+		public GameClock newClock(){
+			return this == NONE? null : new GameClock(initialMillis, incrementMillis);
+		}
+
+		@Override
+		public String toString(){
+			return label;
+		}
+	}
+
+	/**
+	 * Sets both clocks, stopped.
+	 *
+	 * @param initialMillis Time each player starts with.
+	 * @param incrementMillis Time added after each move, 0 for sudden death.
+	 */
+	public GameClock(long initialMillis, long incrementMillis){
+		this.initialMillis   = initialMillis;
+		this.incrementMillis = incrementMillis;
+		this.redMillis       = initialMillis;
+		this.yellowMillis    = initialMillis;
+		this.turnStarted     = -1;
+	}
+
+	/**
+	 * Starts the clock of the player to move.
+	 *
+	 * @param redToMove True if red is to move.
+	 */
+	public synchronized void start(boolean redToMove){
+		this.redToMove   = redToMove;
+		this.turnStarted = System.nanoTime();
+	}
+
+	/**
+	 * Ends the turn of the player to move and starts the other player's clock.
+	 *
+	 * @return False if the player who moved had already run out of time.
+	 */
+	public synchronized boolean press(){
+		long left = getRemainingMillis(redToMove);
+		if(left > 0){
+			left += incrementMillis;
+		}
+		if(redToMove){
+			redMillis = left;
+		} else {
+			yellowMillis = left;
+		}
+		redToMove = !redToMove;
+		if(turnStarted >= 0){
+			turnStarted = System.nanoTime();
+		}
+		return left > 0;
+	}
+
+	/**
+	 * Stops both clocks, such as when the game is over.
+	 */
+	public synchronized void stop(){
+		if(turnStarted < 0) return;
+		long left = getRemainingMillis(redToMove);
+		if(redToMove){
+			redMillis = left;
+		} else {
+			yellowMillis = left;
+		}
+		turnStarted = -1;
+	}
+
+	/**
+	 * @param red True for red's clock.
+	 * @return Time left on the player's clock right now, never below 0.
+	 */
+	public synchronized long getRemainingMillis(boolean red){
+		long left = red? redMillis : yellowMillis;
+		if(red == redToMove && turnStarted >= 0){
+			left -= (System.nanoTime() - turnStarted) / 1_000_000;
+		}
+		return Math.max(0, left);
+	}
+
+	/**
+	 * @return True if the player to move has run out of time.
+	 */
+	public synchronized boolean isFlagged(){
+		return getRemainingMillis(redToMove) == 0;
+	}
+
+	public synchronized boolean isRedToMove(){
+		return redToMove;
+	}
+
+	public long getInitialMillis(){
+		return initialMillis;
+	}
+
+	public long getIncrementMillis(){
+		return incrementMillis;
+	}
+
+	/**
+	 * Formats clock time the way clocks show it.
+	 *
+	 * @param millis Time left.
+	 * @return Minutes and seconds, with tenths below ten seconds.
+	 */
+	public static String format(long millis){
+		if(millis < 10_000){
+			return String.format("%d.%d", millis / 1_000, (millis / 100) % 10);
+		}
+		long seconds = (millis + 999) / 1_000;
+		return String.format("%d:%02d", seconds / 60, seconds % 60);
+	}
+}
@@ -0,0 +1,441 @@
+package connectfour.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import connectfour.analysis.Board;
+
+/**
+ * An append-only record of games, kept as a directory of numbered segment files.
+ *
+ * Each record holds a game's ID, its status, and every move so far packed two to a byte, followed by a checksum.  A game in progress may be recorded
+ * after every move, so the last record for a game is its latest state; finished games end with a record carrying the result.  Records are gathered in
+ * memory and written and synced to disk in batches, either once enough are waiting or every sync interval, so a crash loses at most one batch.  There
+ * are two batch buffers, so records can keep being added to one while the other is being synced.  When a
+ * segment is full the journal moves on to the next one, and reopening a journal always starts a new segment so a half-written record is never
+ * appended to.
+ *
+ * Game IDs must not be reused across restarts, or the last record of an old game would look like the latest state of a new one.  Opening a journal
+ * reads through the records already there, and servers start numbering their games after {@link #getHighestGameId() the highest ID} found.
+ *
+ * Use {@link GameJournalReader} to read a journal back.
+ *
+ * @author Folz
+ *
+ */
+public class GameJournal implements Closeable {
+	public static final byte IN_PROGRESS = 0;
+	public static final byte RED_WON     = 'R';
+	public static final byte YELLOW_WON  = 'Y';
+	public static final byte DRAW        = 'D';
+	public static final byte ABANDONED   = 'A';
+
+	static final String SEGMENT_PREFIX = "journal-";
+	static final String SEGMENT_SUFFIX = ".c4j";
+	static final int SEGMENT_MAGIC     = 0x43344A31; //"C4J1"
+	static final int SEGMENT_HEADER    = 8;          //magic, segment number
+	static final int RECORD_OVERHEAD   = 11;         //length, game ID, status, move count, then a checksum after the moves
+	static final int MAX_RECORD_BYTES  = RECORD_OVERHEAD + (Board.NUM_ROWS * Board.NUM_COLUMNS + 1) / 2;
+
+	private static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+	private static final int DEFAULT_BATCH_RECORDS  = 1024;
+	private static final long DEFAULT_SYNC_MILLIS   = 200;
+
+	private final Path directory;
+	private final long segmentBytes;
+	private final int batchRecords;
+	private final Object syncLock;
+	private final CRC32 checksum;
+	private ByteBuffer batch;    //being filled, guarded by this
+	private ByteBuffer draining; //being written, guarded by syncLock
+	private final ScheduledExecutorService syncTimer;
+	private FileChannel segment; //guarded by syncLock
+	private int segmentNumber;
+	private long segmentSize;
+	private int batchedRecords;
+	private boolean closed;      //guarded by this
+	private final int highestGameId;
+	private long recordsWritten;
+	private long syncs;
+
+	/**
+	 * A single journal record.  Readers fill the same record again and again, so copy out anything that needs to be kept.
+	 */
+	public static class Record {
+		public int gameId;
+		public byte status;
+		public int moveCount;
+		public final byte[] moves = new byte[Board.NUM_ROWS * Board.NUM_COLUMNS];
+
+		public boolean isFinished(){
+			return status != IN_PROGRESS;
+		}
+
+		/**
+		 * Replays the recorded moves.
+		 *
+		 * @return Board after every move.
+		 */
+		public Board toBoard(){
+			Board board = new Board();
+			for(int i = 0; i < moveCount; ++i){
+				board = new Board(board, moves[i]);
+			}
+			return board;
+		}
+	}
+
+	/**
+	 * Opens a journal with 64 MB segments, syncing every 1024 records or 200 ms, whichever comes first.
+	 *
+	 * @param directory Directory of the journal, created if needed.
+	 * @throws IOException if the first segment can't be created.
+	 */
+	public GameJournal(Path directory) throws IOException{
+		this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_BATCH_RECORDS, DEFAULT_SYNC_MILLIS);
+	}
+
+	/**
+	 * Opens a journal, starting a new segment after any that are already there.  The records already there are read through once to find the
+	 * highest game ID.
+	 *
+	 * @param directory Directory of the journal, created if needed.
+	 * @param segmentBytes Size a segment may grow to before the next one is started.
+	 * @param batchRecords Records to gather before writing and syncing them.
+	 * @param syncMillis Longest a record may wait before it is written and synced, or 0 to only sync full batches and on {@link #sync()}.
+	 * @throws IOException if the first segment can't be created.
+	 */
+	public GameJournal(Path directory, long segmentBytes, int batchRecords, long syncMillis) throws IOException{
+		this.directory    = Files.createDirectories(directory);
+		this.segmentBytes = segmentBytes;
+		this.batchRecords = batchRecords;
+		this.batch        = ByteBuffer.allocateDirect(batchRecords * MAX_RECORD_BYTES);
+		this.draining     = ByteBuffer.allocateDirect(batchRecords * MAX_RECORD_BYTES);
+		this.syncLock     = new Object();
+		this.checksum     = new CRC32();
+
+		List<Path> existing = listSegments(directory);
+		int highest = 0;
+		if(!existing.isEmpty()){
+			Record record = new Record();
+			try(GameJournalReader reader = new GameJournalReader(directory)){
+				while(reader.next(record)){
+					highest = Math.max(highest, record.gameId);
+				}
+			}
+		}
+		highestGameId = highest;
+		segmentNumber = existing.isEmpty()? 0 : segmentNumberOf(existing.get(existing.size() - 1));
+		openNextSegment();
+
+		if(syncMillis > 0){
+			syncTimer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+				Thread thread = new Thread(runnable, "journal-sync");
+				thread.setDaemon(true);
+				return thread;
+			});
+			syncTimer.scheduleWithFixedDelay(() -> {
+				try{
+					sync();
+				} catch(IOException e){
+					System.err.println("Couldn't sync game journal: " + e.getMessage());
+				}
+			}, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+		} else {
+			syncTimer = null;
+		}
+	}
+
+	/**
+	 * Records the state of a game.  Safe to call from any thread.
+	 *
+	 * @param gameId ID of the game.
+	 * @param status {@link #IN_PROGRESS}, or how the game ended.
+	 * @param moves Columns of the moves so far.
+	 * @param moveCount Number of moves.
+	 * @throws IOException if a full batch couldn't be written, or the journal is closed.
+	 */
+	public void append(int gameId, byte status, byte[] moves, int moveCount) throws IOException{
+		boolean full;
+		while(true){
+			synchronized(this){
+				if(closed){
+					throw new IOException("The game journal is closed"); //a record put in the batch now would never be written
+				}
+				if(batch.remaining() >= MAX_RECORD_BYTES){
+					full = put(gameId, status, moves, moveCount);
+					break;
+				}
+			}
+			sync(); //other threads filled the batch before the one that filled it got to write it, so write it here rather than overflow it
+		}
+		if(full){
+			sync(); //the caller waits for the disk, which keeps writers from getting ahead of it
+		}
+	}
+
+	private boolean put(int gameId, byte status, byte[] moves, int moveCount){
+		int start = batch.position();
+		batch.put((byte)(RECORD_OVERHEAD - 1 + (moveCount + 1) / 2)); //bytes after the length
+		batch.putInt(gameId);
+		batch.put(status);
+		batch.put((byte)moveCount);
+		for(int i = 0; i < moveCount; i += 2){
+			int second = i + 1 < moveCount? moves[i + 1] : 0;
+			batch.put((byte)((moves[i] << 4) | second));
+		}
+		batch.putInt((int)checksumOf(batch, start + 1, batch.position()));
+
+		++recordsWritten;
+		return ++batchedRecords >= batchRecords;
+	}
+
+	private long checksumOf(ByteBuffer buffer, int from, int to){
+		ByteBuffer body = buffer.duplicate();
+		body.limit(to).position(from);
+		checksum.reset();
+		checksum.update(body);
+		return checksum.getValue();
+	}
+
+	/**
+	 * Records the state of a game from its board.
+	 *
+	 * @param gameId ID of the game.
+	 * @param status {@link #IN_PROGRESS}, or how the game ended.
+	 * @param board Current board of the game.
+	 * @throws IOException if a full batch couldn't be written, or the journal is closed.
+	 */
+	public void append(int gameId, byte status, Board board) throws IOException{
+		byte[] moves = board.getMoveHistory();
+		append(gameId, status, moves, moves.length);
+	}
+
+	/**
+	 * Writes every gathered record and waits until they are on disk.
+	 *
+	 * @throws IOException if writing fails.
+	 */
+	public void sync() throws IOException{
+		synchronized(syncLock){
+			if(segment == null) return;
+			synchronized(this){
+				if(batchedRecords == 0) return;
+				ByteBuffer full = batch;
+				batch           = draining;
+				draining        = full;
+				batchedRecords  = 0;
+			}
+
+			if(segmentSize + draining.position() > segmentBytes && segmentSize > SEGMENT_HEADER){
+				segment.force(false);
+				segment.close();
+				openNextSegment();
+			}
+			draining.flip();
+			while(draining.hasRemaining()){
+				segmentSize += segment.write(draining);
+			}
+			draining.clear();
+			segment.force(false);
+			++syncs;
+		}
+	}
+
+	private void openNextSegment() throws IOException{
+		++segmentNumber;
+		Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+		segment   = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+		header.putInt(SEGMENT_MAGIC).putInt(segmentNumber).flip();
+		while(header.hasRemaining()){
+			segment.write(header);
+		}
+		segmentSize = SEGMENT_HEADER;
+	}
+
+	/**
+	 * Lists the segment files of a journal in the order they were written.
+	 *
+	 * @param directory Directory of the journal.
+	 * @return The segments, empty if the directory doesn't exist.
+	 * @throws IOException if the directory can't be listed.
+	 */
+	static List<Path> listSegments(Path directory) throws IOException{
+		ArrayList<Path> segments = new ArrayList<Path>();
+		if(!Files.isDirectory(directory)){
+			return segments;
+		}
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)){
+			for(Path file : files){
+				segments.add(file);
+			}
+		}
+		Collections.sort(segments); //numbers are zero padded
+		return segments;
+	}
+
+	private static int segmentNumberOf(Path segment){
+		String name = segment.getFileName().toString();
+		return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * @return Highest game ID recorded before the journal was opened, or 0 if it was empty.
+	 */
+	public int getHighestGameId(){
+		return highestGameId;
+	}
+
+	public synchronized long getRecordsWritten(){
+		return recordsWritten;
+	}
+
+	public long getSyncs(){
+		synchronized(syncLock){
+			return syncs;
+		}
+	}
+
+	/**
+	 * Writes and syncs whatever is left, then closes the journal.  Appending afterwards throws.
+	 *
+	 * @throws IOException if the last batch couldn't be written.
+	 */
+	@Override
+	public void close() throws IOException{
+		if(syncTimer != null){
+			syncTimer.shutdown();
+		}
+		synchronized(syncLock){
+			synchronized(this){
+				closed = true;
+			}
+			if(segment != null){
+				try{
+					sync();
+				} finally {
+					segment.close();
+					segment = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Has several threads append to a new journal at once with small batches, then reads it back and checks every record arrived intact.
+	 *
+	 * @param directory Directory for the journal, which should not exist yet.
+	 * @param threadCount Number of threads appending at once.
+	 * @param gamesPerThread Records each thread appends.
+	 * @throws IOException if the journal can't be written or read.
+	 * @throws InterruptedException if interrupted while waiting for the threads.
+	 */
+	private static void stressAppend(Path directory, int threadCount, int gamesPerThread) throws IOException, InterruptedException{
+		IOException[] failure = new IOException[1];
+		try(GameJournal journal = new GameJournal(directory, 1L << 20, 16, 1)){
+			Thread[] threads = new Thread[threadCount];
+			for(int t = 0; t < threadCount; ++t){
+				final int first = t * gamesPerThread;
+				threads[t] = new Thread(() -> {
+					byte[] moves = new byte[Board.NUM_ROWS * Board.NUM_COLUMNS];
+					for(int i = 0; i < moves.length; ++i){
+						moves[i] = (byte)(i % Board.NUM_COLUMNS);
+					}
+					try{
+						for(int game = first; game < first + gamesPerThread; ++game){
+							journal.append(game, DRAW, moves, game % moves.length + 1);
+						}
+					} catch(IOException | RuntimeException e){
+						synchronized(failure){
+							failure[0] = e instanceof IOException? (IOException)e : new IOException(e);
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for(Thread thread : threads){
+				thread.join();
+			}
+		}
+		if(failure[0] != null){
+			throw failure[0];
+		}
+
+		boolean[] seen = new boolean[threadCount * gamesPerThread];
+		long records   = 0;
+		long wrong     = 0;
+		Record record  = new Record();
+		try(GameJournalReader reader = new GameJournalReader(directory)){
+			while(reader.next(record)){
+				++records;
+				if(record.gameId < 0 || record.gameId >= seen.length || seen[record.gameId] || record.moveCount != record.gameId % record.moves.length + 1){
+					++wrong;
+				} else {
+					seen[record.gameId] = true;
+				}
+			}
+			System.out.println(String.format("Concurrent append, %d threads: %d of %d records read back, %d wrong, %d damaged", threadCount, records,
+					seen.length, wrong, reader.getDamagedRecords()));
+			if(records != seen.length || wrong != 0 || reader.getDamagedRecords() != 0){
+				throw new IOException("Records were lost or damaged by concurrent appends");
+			}
+		}
+	}
+
+	/**
+	 * Writes random games to a journal, for trying out {@link GameJournalReader} on a large journal, or with "stress" first checks that concurrent
+	 * appends all arrive intact.
+	 *
+	 * @param args Directory of the journal and optionally the number of games, or "stress", a directory that doesn't exist yet and optionally the
+	 * number of threads.
+	 * @throws IOException if the journal can't be written.
+	 * @throws InterruptedException if interrupted while waiting for the stress threads.
+	 */
+	public static void main(String... args) throws IOException, InterruptedException{
+		if(args.length > 1 && args[0].equals("stress")){
+			stressAppend(Paths.get(args[1]), args.length > 2? Integer.parseInt(args[2]) : 16, 20_000);
+			return;
+		}
+		Path directory = Paths.get(args.length > 0? args[0] : "journal");
+		int games      = args.length > 1? Integer.parseInt(args[1]) : 1_000_000;
+		Random random  = new Random();
+		byte[] moves   = new byte[Board.NUM_ROWS * Board.NUM_COLUMNS];
+		byte[] heights = new byte[Board.NUM_COLUMNS];
+
+		long startTime = System.currentTimeMillis();
+		try(GameJournal journal = new GameJournal(directory)){
+			for(int game = 1; game <= games; ++game){
+				int moveCount = 7 + random.nextInt(moves.length - 6); //a random legal sequence, not a real game, is enough to exercise the format
+				Arrays.fill(heights, (byte)0);
+				for(int i = 0; i < moveCount; ++i){
+					int column;
+					do{
+						column = random.nextInt(Board.NUM_COLUMNS);
+					} while(heights[column] == Board.NUM_ROWS);
+					++heights[column];
+					moves[i] = (byte)column;
+				}
+				journal.append(game, moveCount == moves.length? DRAW : RED_WON, moves, moveCount);
+			}
+			double seconds = (System.currentTimeMillis() - startTime) / 1_000.0;
+			System.out.println(String.format("Wrote %d games in %.1f s (%.0f/s) with %d syncs", games, seconds, games / seconds, journal.getSyncs() + 1));
+		}
+	}
+}
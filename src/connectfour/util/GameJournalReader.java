@@ -0,0 +1,156 @@
+package connectfour.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads every record of a {@link GameJournal} in the order they were written.
+ *
+ * One segment is mapped into memory at a time and records are decoded straight out of the mapping into a single reused
+ * {@link GameJournal.Record}, so reading millions of games takes the same memory as reading one.  A record that was only partly written when its
+ * process died fails its checksum, and reading stops there for that segment and carries on with the next one.
+ *
+ * @author Folz
+ *
+ */
+public class GameJournalReader implements Closeable {
+	private final List<Path> segments;
+	private final CRC32 checksum;
+	private int nextSegment;
+	private MappedByteBuffer current;
+	private long damagedRecords;
+
+	/**
+	 * Opens a journal for reading.  Segments added after this are not read.
+	 *
+	 * @param directory Directory of the journal.
+	 * @throws IOException if the directory can't be listed.
+	 */
+	public GameJournalReader(Path directory) throws IOException{
+		this.segments = GameJournal.listSegments(directory);
+		this.checksum = new CRC32();
+	}
+
+	/**
+	 * Decodes the next record.
+	 *
+	 * @param record Record to fill.
+	 * @return False once every record has been read.
+	 * @throws IOException if a segment can't be mapped.
+	 */
+	public boolean next(GameJournal.Record record) throws IOException{
+		while(true){
+			if(current != null && readRecord(record)){
+				return true;
+			}
+			if(nextSegment == segments.size()){
+				current = null;
+				return false;
+			}
+			current = map(segments.get(nextSegment++));
+		}
+	}
+
+	private static MappedByteBuffer map(Path segment) throws IOException{
+		try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)){
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(mapped.limit() < GameJournal.SEGMENT_HEADER || mapped.getInt(0) != GameJournal.SEGMENT_MAGIC){
+				throw new IOException(segment + " is not a journal segment");
+			}
+			mapped.position(GameJournal.SEGMENT_HEADER);
+			return mapped;
+		}
+	}
+
+	/**
+	 * Decodes the record at the current position of the mapped segment.
+	 *
+	 * @return False at the end of the segment or at a damaged record.
+	 */
+	private boolean readRecord(GameJournal.Record record){
+		int start = current.position();
+		if(current.remaining() < GameJournal.RECORD_OVERHEAD){
+			return false;
+		}
+		int length = current.get(start) & 0xFF;
+		if(length < GameJournal.RECORD_OVERHEAD - 1 || length > GameJournal.MAX_RECORD_BYTES - 1 || current.remaining() < 1 + length){
+			++damagedRecords;
+			return false;
+		}
+		int end = start + 1 + length;
+
+		checksum.reset();
+		current.limit(end - 4).position(start + 1);
+		checksum.update(current);
+		current.limit(current.capacity());
+		if((int)checksum.getValue() != current.getInt(end - 4)){
+			++damagedRecords;
+			return false;
+		}
+
+		record.gameId    = current.getInt(start + 1);
+		record.status    = current.get(start + 5);
+		record.moveCount = current.get(start + 6);
+		if(record.moveCount < 0 || record.moveCount > record.moves.length || GameJournal.RECORD_OVERHEAD - 1 + (record.moveCount + 1) / 2 != length){
+			++damagedRecords;
+			return false;
+		}
+		for(int i = 0; i < record.moveCount; ++i){
+			int packed = current.get(start + 7 + i / 2);
+			record.moves[i] = (byte)(i % 2 == 0? (packed >> 4) & 0xF : packed & 0xF);
+		}
+		current.position(end);
+		return true;
+	}
+
+	/**
+	 * @return Number of records that failed their checksum or were cut short, each of which ended the reading of its segment.
+	 */
+	public long getDamagedRecords(){
+		return damagedRecords;
+	}
+
+	@Override
+	public void close(){
+		current = null; //unmapped once collected
+	}
+
+	/**
+	 * Reads a whole journal from the command line and prints how many games it holds and how fast it was read.
+	 *
+	 * @param args Directory of the journal.
+	 * @throws IOException if the journal can't be read.
+	 */
+	public static void main(String... args) throws IOException{
+		Path directory = Paths.get(args.length > 0? args[0] : "journal");
+		long records   = 0;
+		long finished  = 0;
+		long moves     = 0;
+		long[] results = new long[128];
+
+		long startTime = System.currentTimeMillis();
+		GameJournal.Record record = new GameJournal.Record();
+		try(GameJournalReader reader = new GameJournalReader(directory)){
+			while(reader.next(record)){
+				++records;
+				moves += record.moveCount;
+				if(record.isFinished()){
+					++finished;
+					++results[record.status & 0x7F];
+				}
+			}
+			double seconds = Math.max(0.001, (System.currentTimeMillis() - startTime) / 1_000.0);
+			System.out.println(String.format("%d records (%d finished games, %d moves) read in %.2f s (%.0f records/s), %d damaged",
+					records, finished, moves, seconds, records / seconds, reader.getDamagedRecords()));
+			System.out.println(String.format("Red won %d, yellow won %d, drawn %d, abandoned %d",
+					results[GameJournal.RED_WON], results[GameJournal.YELLOW_WON], results[GameJournal.DRAW], results[GameJournal.ABANDONED]));
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package connectfour.util;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javafx.scene.image.Image;
+
+/**
+ * Loads the images of the GUI from the classpath, once each.
+ *
+ * The images live beside this class, so they are found the same way whether the game runs from the build directory or from a jar.  Board images are
+ * decoded straight to the size of a cell, so they are never scaled again when drawn.  Nothing is loaded until it is first asked for, so piece themes
+ * nobody picks are never read, and after that every window and every theme switch gets the same decoded image.
+ *
+ * @author Folz
+ *
+ */
+public final class ImageCache {
+	/**
+	 * Width and height, in pixels, that board images are decoded to.
+	 */
+	public static final int CELL_SIZE = 100;
+
+	private static final String IMAGE_DIRECTORY = "images/";
+	private static final ConcurrentHashMap<String, Image> images = new ConcurrentHashMap<String, Image>();
+
+	/**
+	 * The piece images players can choose between.
+	 */
+	public enum PieceTheme {
+		RED("Red", "p1Piece.png"),
+		BLACK("Black", "p2Piece.png"),
+		PURPLE("Purple", "PurplePiece.png"),
+		HALLOWEEN("Halloween", "HalloweenPiece.png"),
+		EASTER("Easter", "EasterPiece.png");
+
+		private final String label;
+		private final String file;
+
+		private PieceTheme(String label, String file){
+			this.label = label;
+			this.file  = file;
+		}
+
+		@Override
+		public String toString(){
+			return label;
+		}
+	}
+
+	private ImageCache(){
+	}
+
+	public static Image getSquare(){
+		return get("square.png", CELL_SIZE);
+	}
+
+	public static Image getPiece(PieceTheme theme){
+		return get(theme.file, CELL_SIZE);
+	}
+
+	public static Image getPortrait(){
+		return get("PlayerPortrait.png", 0);
+	}
+
+	public static Image getFlag(){
+		return get("Flag.png", 0);
+	}
+
+	/**
+	 * @return Number of images decoded so far.
+	 */
+	public static int getLoadedCount(){
+		return images.size();
+	}
+
+	private static Image get(String name, int size){
+		return images.computeIfAbsent(name, (key) -> load(name, size));
+	}
+
+	/**
+	 * Decodes an image.
+	 *
+	 * @param name File name of the image.
+	 * @param size Width and height to decode it to, or 0 for its own size.
+	 * @return The image, or null if it couldn't be loaded, in which case loading is tried again the next time it is asked for.
+	 */
+	private static Image load(String name, int size){
+		URL resource = ImageCache.class.getResource(IMAGE_DIRECTORY + name);
+		if(resource == null){
+			System.err.println("Missing image " + IMAGE_DIRECTORY + name);
+			return null;
+		}
+		Image image = size > 0? new Image(resource.toExternalForm(), size, size, true, true) : new Image(resource.toExternalForm());
+		if(image.isError()){
+			System.err.println("Couldn't load image " + name + ": " + image.getException());
+			return null;
+		}
+		return image;
+	}
+}
@@ -0,0 +1,479 @@
+package connectfour.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.PositionCache;
+
+/**
+ * How often each position turned up in a {@link GameJournal}, how those games ended, and what was played next.
+ *
+ * The index is built offline by replaying every finished game in a journal.  Each position reached is noted as one long holding its key, the result of
+ * the game and the move played from it, and the notes are sorted, spilling sorted runs to disk once memory is full and merging them afterwards, then
+ * added up into one fixed size entry per position.  The entries are written sorted by key, so a lookup is a binary search over the memory-mapped file
+ * that touches a couple of dozen entries and never loads the rest.
+ *
+ * A position and its mirror image share an entry, as they do in the {@link PositionCache}, with the moves played from the mirror image mirrored too.
+ * Lookups give the moves back for the position asked about.
+ *
+ * @author Folz
+ *
+ */
+public class PositionIndex implements Closeable {
+	private static final int INDEX_MAGIC    = 0x43345049; //"C4PI"
+	private static final int INDEX_FORMAT   = 1;
+	private static final int INDEX_HEADER   = 16;         //magic, format, entry size, entry count
+	private static final int ENTRY_BYTES    = 8 + 4 * (4 + Board.NUM_COLUMNS); //key, games, red wins, yellow wins, draws, then games per next move
+	private static final int REGION_SHIFT   = 24;         //entries per mapping, keeping each one under 2 GB
+	private static final long REGION_MASK  = (1L << REGION_SHIFT) - 1;
+
+	private static final int RESULT_RED    = 0;
+	private static final int RESULT_YELLOW = 1;
+	private static final int RESULT_DRAW   = 2;
+	private static final int NO_NEXT_MOVE  = 7;  //the game ended in this position
+	private static final int NOTE_SHIFT    = 5;  //two bits of result and three of next move below the key
+
+	private static final int COLUMN_BITS   = Board.NUM_ROWS + 1;
+	private static final long BOTTOM_MASK  = 0b0000001_0000001_0000001_0000001_0000001_0000001_0000001L; //lowest square of each column
+
+	private static final int DEFAULT_SORT_BUFFER = 8 << 20; //notes sorted in memory at once, 64 MB
+
+	private final MappedByteBuffer[] regions;
+	private final long entryCount;
+
+	/**
+	 * What happened in the games that reached one position.
+	 */
+	public static class Stats {
+		public int games;
+		public int redWins;
+		public int yellowWins;
+		public int draws;
+		/**
+		 * Games in which each column was played next.  Games that ended in the position aren't counted here.
+		 */
+		public final int[] nextMoves = new int[Board.NUM_COLUMNS];
+
+		public double getRedWinRate(){
+			return games == 0? 0 : (double)redWins / games;
+		}
+
+		public double getYellowWinRate(){
+			return games == 0? 0 : (double)yellowWins / games;
+		}
+
+		public double getDrawRate(){
+			return games == 0? 0 : (double)draws / games;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%d games, red won %.1f%%, yellow won %.1f%%, drawn %.1f%%, next moves %s",
+					games, 100 * getRedWinRate(), 100 * getYellowWinRate(), 100 * getDrawRate(), Arrays.toString(nextMoves));
+		}
+	}
+
+	/**
+	 * Maps an index file read-only.
+	 *
+	 * @param file Index made by {@link #build(Path, Path, int)}.
+	 * @throws IOException if the file can't be read or isn't an index.
+	 */
+	public PositionIndex(Path file) throws IOException{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			if(header.position() < INDEX_HEADER || header.getInt(0) != INDEX_MAGIC){
+				throw new IOException(file + " is not a position index");
+			}
+			if(header.getShort(4) != INDEX_FORMAT || header.getShort(6) != ENTRY_BYTES){
+				throw new IOException(file + " has an unknown index format " + header.getShort(4));
+			}
+			entryCount = header.getLong(8);
+			if(channel.size() < INDEX_HEADER + entryCount * ENTRY_BYTES){
+				throw new IOException(file + " is truncated");
+			}
+
+			regions = new MappedByteBuffer[(int)((entryCount + REGION_MASK) >>> REGION_SHIFT)];
+			for(int i = 0; i < regions.length; ++i){
+				long first = (long)i << REGION_SHIFT;
+				long count = Math.min(REGION_MASK + 1, entryCount - first);
+				regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, INDEX_HEADER + first * ENTRY_BYTES, count * ENTRY_BYTES); //stays mapped after the channel closes
+			}
+		}
+	}
+
+	/**
+	 * Looks up a position.
+	 *
+	 * @param board Position to look up.
+	 * @return What happened from the position, or null if no indexed game reached it.
+	 */
+	public Stats lookup(Board board){
+		long key      = board.getPositionKey();
+		long mirrored = PositionCache.mirror(key);
+		long entry    = find(Math.min(key, mirrored));
+		if(entry < 0){
+			return null;
+		}
+
+		ByteBuffer region = regions[(int)(entry >>> REGION_SHIFT)];
+		int offset        = (int)(entry & REGION_MASK) * ENTRY_BYTES + 8;
+		Stats stats       = new Stats();
+		stats.games       = region.getInt(offset);
+		stats.redWins     = region.getInt(offset + 4);
+		stats.yellowWins  = region.getInt(offset + 8);
+		stats.draws       = region.getInt(offset + 12);
+		boolean flip      = mirrored < key;
+		for(int c = 0; c < Board.NUM_COLUMNS; ++c){
+			stats.nextMoves[flip? Board.NUM_COLUMNS - 1 - c : c] = region.getInt(offset + 16 + 4 * c);
+		}
+		return stats;
+	}
+
+	/**
+	 * Binary searches the entries for a key.
+	 *
+	 * @return Number of the entry, or -1 if the key isn't there.
+	 */
+	private long find(long canonicalKey){
+		long low  = 0;
+		long high = entryCount - 1;
+		while(low <= high){
+			long middle = (low + high) >>> 1;
+			long key    = keyAt(middle);
+			if(key < canonicalKey){
+				low = middle + 1;
+			} else if(key > canonicalKey){
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private long keyAt(long entry){
+		return regions[(int)(entry >>> REGION_SHIFT)].getLong((int)(entry & REGION_MASK) * ENTRY_BYTES);
+	}
+
+	public long getPositionCount(){
+		return entryCount;
+	}
+
+	@Override
+	public void close(){
+		Arrays.fill(regions, null); //unmapped once collected
+	}
+
+	/**
+	 * Indexes every finished game in a journal, sorting with up to 64 MB of memory.
+	 *
+	 * @param journal Directory of the journal.
+	 * @param file Index file to write.
+	 * @return Number of games indexed.
+	 * @throws IOException if the journal can't be read or the index can't be written.
+	 */
+	public static long build(Path journal, Path file) throws IOException{
+		return build(journal, file, DEFAULT_SORT_BUFFER);
+	}
+
+	/**
+	 * Indexes every finished game in a journal.  Abandoned games and games still in progress are left out.  The index is written to a temporary file
+	 * beside the index and moved into place when it is complete, so an index being rebuilt can still be used until then.
+	 *
+	 * @param journal Directory of the journal.
+	 * @param file Index file to write.
+	 * @param sortBuffer Positions to sort in memory at once.  Beyond this, sorted runs are spilled to temporary files and merged.
+	 * @return Number of games indexed.
+	 * @throws IOException if the journal can't be read or the index can't be written.
+	 */
+	public static long build(Path journal, Path file, int sortBuffer) throws IOException{
+		long[] notes    = new long[Math.max(sortBuffer, Board.NUM_ROWS * Board.NUM_COLUMNS + 1)];
+		int noteCount   = 0;
+		long games      = 0;
+		List<Path> runs = new ArrayList<Path>();
+		Path temp       = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try{
+			GameJournal.Record record = new GameJournal.Record();
+			try(GameJournalReader reader = new GameJournalReader(journal)){
+				while(reader.next(record)){
+					int result = resultOf(record.status);
+					if(result < 0){
+						continue;
+					}
+					if(notes.length - noteCount <= record.moveCount){
+						runs.add(spill(notes, noteCount, file, runs.size()));
+						noteCount = 0;
+					}
+					noteCount = notePositions(record, result, notes, noteCount);
+					++games;
+				}
+			}
+
+			Arrays.parallelSort(notes, 0, noteCount);
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+				IndexWriter writer = new IndexWriter(channel);
+				if(runs.isEmpty()){
+					for(int i = 0; i < noteCount; ++i){
+						writer.add(notes[i]);
+					}
+				} else {
+					runs.add(spill(notes, noteCount, file, runs.size()));
+					notes = null; //merging only needs the run buffers
+					mergeRuns(runs, writer);
+				}
+				writer.finish();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			for(Path run : runs){
+				Files.deleteIfExists(run);
+			}
+			Files.deleteIfExists(temp);
+		}
+		return games;
+	}
+
+	private static int resultOf(byte status){
+		switch(status){
+		case GameJournal.RED_WON:
+			return RESULT_RED;
+		case GameJournal.YELLOW_WON:
+			return RESULT_YELLOW;
+		case GameJournal.DRAW:
+			return RESULT_DRAW;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Replays a game and notes every position in it.  Making a {@link Board} for every move would also evaluate every position, which is most of the
+	 * cost of indexing, so the keys are worked out move by move the same way {@link Board#getPositionKey()} builds them instead: the pieces of the
+	 * player to move become the opponent's pieces, and the move adds one square above the top of its column.
+	 *
+	 * @return Number of notes afterwards.
+	 */
+	private static int notePositions(GameJournal.Record record, int result, long[] notes, int noteCount){
+		long position = 0; //pieces of the player to move
+		long mask     = 0; //every piece
+		for(int i = 0; i <= record.moveCount; ++i){
+			long key       = position + mask + BOTTOM_MASK;
+			long mirrored  = PositionCache.mirror(key);
+			int next       = i < record.moveCount? record.moves[i] : NO_NEXT_MOVE;
+			if(mirrored < key){
+				key  = mirrored;
+				next = next == NO_NEXT_MOVE? next : Board.NUM_COLUMNS - 1 - next;
+			}
+			notes[noteCount++] = (key << NOTE_SHIFT) | (result << 3) | next;
+			if(i < record.moveCount){
+				position ^= mask;
+				mask     |= mask + (1L << (record.moves[i] * COLUMN_BITS));
+			}
+		}
+		return noteCount;
+	}
+
+	/**
+	 * Sorts notes and writes them to a temporary run file.
+	 */
+	private static Path spill(long[] notes, int noteCount, Path file, int runNumber) throws IOException{
+		Arrays.parallelSort(notes, 0, noteCount);
+		Path run = file.resolveSibling(file.getFileName() + ".run" + runNumber);
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))){
+			for(int i = 0; i < noteCount; ++i){
+				out.writeLong(notes[i]);
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * Merges sorted runs into the index.
+	 */
+	private static void mergeRuns(List<Path> runs, IndexWriter writer) throws IOException{
+		PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(runs.size(), (a, b) -> Long.compare(a.head, b.head));
+		try{
+			for(Path run : runs){
+				RunReader reader = new RunReader(run);
+				if(reader.advance()){
+					heads.add(reader);
+				} else {
+					reader.in.close();
+				}
+			}
+			while(!heads.isEmpty()){
+				RunReader reader = heads.poll();
+				writer.add(reader.head);
+				if(reader.advance()){
+					heads.add(reader);
+				} else {
+					reader.in.close();
+				}
+			}
+		} finally {
+			for(RunReader reader : heads){
+				reader.in.close();
+			}
+		}
+	}
+
+	private static class RunReader {
+		final DataInputStream in;
+		long head;
+
+		RunReader(Path run) throws IOException{
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+		}
+
+		boolean advance() throws IOException{
+			try{
+				head = in.readLong();
+				return true;
+			} catch(EOFException e){
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Adds up sorted notes into entries and writes them out.
+	 */
+	private static class IndexWriter {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final int[] counts;
+		private long key;
+		private long entries;
+
+		IndexWriter(FileChannel channel) throws IOException{
+			this.channel = channel;
+			this.buffer  = ByteBuffer.allocateDirect(ENTRY_BYTES * 4096);
+			this.counts  = new int[4 + Board.NUM_COLUMNS];
+			this.key     = -1;
+			channel.position(INDEX_HEADER); //the header is written last, once the entries are counted
+		}
+
+		void add(long note) throws IOException{
+			long noteKey = note >>> NOTE_SHIFT;
+			if(noteKey != key){
+				writeEntry();
+				key = noteKey;
+			}
+			++counts[0];
+			++counts[1 + (int)((note >>> 3) & 3)];
+			int next = (int)(note & 7);
+			if(next != NO_NEXT_MOVE){
+				++counts[4 + next];
+			}
+		}
+
+		private void writeEntry() throws IOException{
+			if(key < 0) return;
+			buffer.putLong(key);
+			for(int i = 0; i < counts.length; ++i){
+				buffer.putInt(counts[i]);
+			}
+			Arrays.fill(counts, 0);
+			++entries;
+			if(buffer.remaining() < ENTRY_BYTES){
+				writeFully();
+			}
+		}
+
+		void finish() throws IOException{
+			writeEntry();
+			writeFully();
+			buffer.putInt(INDEX_MAGIC).putShort((short)INDEX_FORMAT).putShort((short)ENTRY_BYTES).putLong(entries);
+			channel.position(0);
+			writeFully();
+			channel.force(true);
+		}
+
+		private void writeFully() throws IOException{
+			buffer.flip();
+			while(buffer.hasRemaining()){
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Builds or queries an index from the command line.
+	 *
+	 * @param args "build", the journal directory and the index file, to build an index;
+	 *             "query", the index file and the moves played from the empty board, to look up a position;
+	 *             or "bench" and the index file, to time lookups of random positions from the index.
+	 * @throws IOException if the journal or index can't be read or the index can't be written.
+	 */
+	public static void main(String... args) throws IOException{
+		String command = args.length > 0? args[0] : "";
+		if(command.equals("build") && args.length > 2){
+			long startTime = System.currentTimeMillis();
+			long games     = build(Paths.get(args[1]), Paths.get(args[2]));
+			double seconds = Math.max(0.001, (System.currentTimeMillis() - startTime) / 1_000.0);
+			try(PositionIndex index = new PositionIndex(Paths.get(args[2]))){
+				System.out.println(String.format("Indexed %d games, %d positions, in %.1f s (%.0f games/s), %d bytes",
+						games, index.getPositionCount(), seconds, games / seconds, Files.size(Paths.get(args[2]))));
+			}
+		} else if(command.equals("query") && args.length > 1){
+			try(PositionIndex index = new PositionIndex(Paths.get(args[1]))){
+				Stats stats = index.lookup(Board.fromMoves(args.length > 2? args[2] : ""));
+				System.out.println(stats == null? "No game reached this position" : stats.toString());
+			}
+		} else if(command.equals("bench") && args.length > 1){
+			try(PositionIndex index = new PositionIndex(Paths.get(args[1]))){
+				benchmarkLookups(index, 1_000_000);
+			}
+		} else {
+			System.err.println("Usage: PositionIndex build <journal> <index> | query <index> [moves] | bench <index>");
+		}
+	}
+
+	private static void benchmarkLookups(PositionIndex index, int lookups){
+		if(index.getPositionCount() == 0){
+			System.out.println("The index is empty");
+			return;
+		}
+		Random random  = new Random();
+		Board[] boards = new Board[4096];
+		for(int i = 0; i < boards.length; ++i){
+			boards[i] = Board.fromPositionKey(index.keyAt((long)(random.nextDouble() * index.getPositionCount())));
+		}
+
+		long games = 0;
+		for(int round = 0; round < 2; ++round){ //the first round warms up
+			long startTime = System.nanoTime();
+			for(int i = 0; i < lookups; ++i){
+				games += index.lookup(boards[i & (boards.length - 1)]).games;
+			}
+			long elapsed = System.nanoTime() - startTime;
+			if(round == 1){
+				System.out.println(String.format("%d lookups in %d ms, %.2f us per lookup (%d games seen)",
+						lookups, elapsed / 1_000_000, elapsed / 1_000.0 / lookups, games));
+			}
+		}
+	}
+}
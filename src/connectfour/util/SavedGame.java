@@ -0,0 +1,151 @@
+package connectfour.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import connectfour.analysis.Board;
+
+/**
+ * Reads and writes saved games.
+ *
+ * A saved game is a 4 byte header of "C4G" and the format version, one byte with the number of moves, then the columns of the moves packed two to a
+ * byte, so a whole game takes at most 26 bytes.  Loading replays the moves, which checks every one of them and gives back a board that knows its history.
+ *
+ * Games used to be saved by serializing the {@link Board}.  {@link #convert(Path)}, or running this class with the files as arguments, rewrites those
+ * files in this format.
+ *
+ * @author Folz
+ *
+ */
+public final class SavedGame {
+	private static final byte[] MAGIC       = {'C', '4', 'G'};
+	private static final byte FORMAT_VERSION = 1;
+	private static final int HEADER_BYTES   = 5;
+	private static final short SERIALIZATION_MAGIC = (short)0xACED; //how every Java serialization stream starts
+
+	private SavedGame(){
+	}
+
+	/**
+	 * Encodes the moves of a game.
+	 *
+	 * @param board Board to save.
+	 * @return The saved game.
+	 * @throws IllegalArgumentException if no legal game reaches the board.
+	 */
+	public static byte[] encode(Board board){
+		byte[] moves = board.getMoveHistory();
+		if(moves == null){
+			throw new IllegalArgumentException("No legal game reaches this position");
+		}
+		byte[] data = new byte[HEADER_BYTES + (moves.length + 1) / 2];
+		System.arraycopy(MAGIC, 0, data, 0, MAGIC.length);
+		data[3] = FORMAT_VERSION;
+		data[4] = (byte)moves.length;
+		for(int i = 0; i < moves.length; ++i){
+			data[HEADER_BYTES + i / 2] |= i % 2 == 0? moves[i] << 4 : moves[i];
+		}
+		return data;
+	}
+
+	/**
+	 * Replays the moves of a saved game.
+	 *
+	 * @param data The saved game.
+	 * @return Board after every move.
+	 * @throws IOException if the data isn't a saved game or holds an illegal move.
+	 */
+	public static Board decode(byte[] data) throws IOException{
+		if(data.length < HEADER_BYTES || data[0] != MAGIC[0] || data[1] != MAGIC[1] || data[2] != MAGIC[2]){
+			throw new IOException("Not a saved game");
+		}
+		if(data[3] != FORMAT_VERSION){
+			throw new IOException("Unknown saved game version " + data[3]);
+		}
+		int moveCount = data[4];
+		if(moveCount < 0 || moveCount > Board.NUM_ROWS * Board.NUM_COLUMNS || data.length < HEADER_BYTES + (moveCount + 1) / 2){
+			throw new IOException("Saved game is damaged");
+		}
+
+		Board board = new Board();
+		for(int i = 0; i < moveCount; ++i){
+			int packed = data[HEADER_BYTES + i / 2];
+			int column = i % 2 == 0? (packed >> 4) & 0xF : packed & 0xF;
+			if(column >= Board.NUM_COLUMNS || !board.getLegalColumns()[column]){
+				throw new IOException("Illegal move " + column + " at move " + i + " of saved game");
+			}
+			board = new Board(board, column);
+		}
+		return board;
+	}
+
+	public static void write(Board board, Path file) throws IOException{
+		Files.write(file, encode(board));
+	}
+
+	public static Board read(Path file) throws IOException{
+		return decode(Files.readAllBytes(file));
+	}
+
+	/**
+	 * @param file File to check.
+	 * @return True if the file is a game saved by serializing the board.
+	 * @throws IOException if the file can't be read.
+	 */
+	public static boolean isSerializedBoard(Path file) throws IOException{
+		try(InputStream in = Files.newInputStream(file)){
+			return ((in.read() << 8) | in.read()) == (SERIALIZATION_MAGIC & 0xFFFF);
+		}
+	}
+
+	/**
+	 * Rewrites a game saved by serializing the board in this format.  The old file is kept beside it with .bak added to its name.
+	 *
+	 * @param file Game to convert.
+	 * @throws IOException if the file can't be read as a serialized board or the new file can't be written.
+	 */
+	public static void convert(Path file) throws IOException{
+		Board board;
+		try(ObjectInputStream in = new ObjectInputStream(Files.newInputStream(file))){
+			board = (Board)in.readObject();
+		} catch(ClassNotFoundException | ClassCastException e){
+			throw new IOException(file + " does not hold a saved board", e);
+		}
+
+		byte[] data;
+		try{
+			data = encode(board);
+		} catch(IllegalArgumentException e){
+			throw new IOException(file + " holds a position no game can reach", e);
+		}
+		Files.copy(file, file.resolveSibling(file.getFileName() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+		Files.write(file, data);
+	}
+
+	/**
+	 * Converts old saved games from the command line.  Files already in this format are left alone.
+	 *
+	 * @param args Files to convert.
+	 */
+	public static void main(String... args){
+		for(String name : args){
+			Path file = Paths.get(name);
+			try{
+				if(isSerializedBoard(file)){
+					convert(file);
+					System.out.println("Converted " + file + " (" + Files.size(file) + " bytes)");
+				} else {
+					read(file); //make sure it really is a saved game
+					System.out.println(file + " is already converted");
+				}
+			} catch(IOException e){
+				System.err.println("Couldn't convert " + file + ": " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package connectfour.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import connectfour.analysis.Board;
+import connectfour.analysis.ComputerPlayer;
+import connectfour.analysis.ComputerPlayer.SearchMode;
+import connectfour.analysis.PositionCache;
+import connectfour.analysis.TranspositionTable;
+
+/**
+ * Plays two engine configurations against each other to find out which is stronger.
+ *
+ * Every opening of a few moves, counting mirror images once, is played twice so each engine gets each side of it.  The engines are deterministic,
+ * so the openings are what makes the games differ.  Games are played in parallel, each with its own transposition tables, which are cleared at the
+ * start of every game so a result doesn't depend on the games a thread played before.
+ *
+ * After every game the match is checked with a sequential probability ratio test, which stops it as soon as the results are enough to tell whether
+ * the first engine is at least elo1 stronger (H1) or no more than elo0 stronger (H0), with false positive and false negative rates of 5%.  The
+ * report gives the Elo difference with a 95% confidence interval and the average time and nodes each engine spent per move.
+ *
+ * @author Folz
+ *
+ */
+public class Tournament {
+	private static final double ALPHA = 0.05;
+	private static final double BETA  = 0.05;
+	private static final double Z_95  = 1.96;
+	private static final long OPENING_SEED = 1;
+
+	private final Engine first;
+	private final Engine second;
+	private final double elo0;
+	private final double elo1;
+	private final ThreadLocal<TranspositionTable[]> tables;
+	private volatile boolean finished;
+
+	/**
+	 * How one engine searches.
+	 */
+	public static class Engine {
+		String name        = "engine";
+		SearchMode mode    = SearchMode.FULL_WINDOW;
+		int depth          = -1; //until parsed
+		long nodes         = Long.MAX_VALUE;
+		long moveMillis    = -1;
+
+		/**
+		 * Reads an engine from a comma separated list of settings, such as "name=mtdf,mode=MTDF,depth=8".  Settings are name, mode (a
+		 * {@link SearchMode}), depth, nodes (most nodes per move) and movetime (most milliseconds per move).  Settings left out keep their defaults:
+		 * full window search to depth 6 without a node or time limit, or to the end of the game if a node or time limit is given, so that limit is
+		 * what ends the search.
+		 *
+		 * @param settings Settings of the engine.
+		 * @return The engine.
+		 * @throws IllegalArgumentException if a setting isn't understood.
+		 */
+		public static Engine parse(String settings){
+			Engine engine = new Engine();
+			engine.name   = settings;
+			for(String setting : settings.split(",")){
+				if(setting.isEmpty()) continue;
+				String[] pair = setting.split("=", 2);
+				if(pair.length != 2){
+					throw new IllegalArgumentException("Expected name=value but got " + setting);
+				}
+				switch(pair[0]){
+				case "name":     engine.name       = pair[1]; break;
+				case "mode":     engine.mode       = SearchMode.valueOf(pair[1].toUpperCase()); break;
+				case "depth":    engine.depth      = Integer.parseInt(pair[1]); break;
+				case "nodes":    engine.nodes      = Long.parseLong(pair[1]); break;
+				case "movetime": engine.moveMillis = Long.parseLong(pair[1]); break;
+				default:         throw new IllegalArgumentException("Unknown engine setting " + pair[0]);
+				}
+			}
+			if(engine.depth < 0){
+				boolean limited = engine.nodes != Long.MAX_VALUE || engine.moveMillis >= 0;
+				engine.depth    = limited? Board.NUM_ROWS * Board.NUM_COLUMNS : 6;
+			}
+			return engine;
+		}
+
+		@Override
+		public String toString(){
+			return name;
+		}
+	}
+
+	/**
+	 * Results of a match so far, counted from the first engine's side.
+	 */
+	public static class Score {
+		public int wins;
+		public int draws;
+		public int losses;
+		public final long[] moves = new long[2]; //indexed by engine
+		public final long[] nanos = new long[2];
+		public final long[] nodes = new long[2];
+
+		public int getGames(){
+			return wins + draws + losses;
+		}
+
+		/**
+		 * @return Points per game of the first engine, 1 for a win and 0.5 for a draw.
+		 */
+		public double getScore(){
+			return (wins + 0.5 * draws) / Math.max(1, getGames());
+		}
+
+		/**
+		 * @return Variance of the points of a single game.
+		 */
+		public double getVariance(){
+			double s = getScore();
+			return (wins * (1 - s) * (1 - s) + draws * (0.5 - s) * (0.5 - s) + losses * s * s) / Math.max(1, getGames());
+		}
+
+		/**
+		 * @return How much stronger the first engine is in Elo.
+		 */
+		public double getElo(){
+			return eloFromScore(getScore());
+		}
+
+		/**
+		 * @return Half the width of the 95% confidence interval of {@link #getElo()}.
+		 */
+		public double getEloError(){
+			double error = Z_95 * Math.sqrt(getVariance() / Math.max(1, getGames()));
+			return (eloFromScore(getScore() + error) - eloFromScore(getScore() - error)) / 2;
+		}
+
+		/**
+		 * Log likelihood ratio of H1, the first engine is elo1 stronger, against H0, it is elo0 stronger, using the normal approximation to the
+		 * results of each game.
+		 *
+		 * @param elo0 Elo difference of H0.
+		 * @param elo1 Elo difference of H1.
+		 * @return The ratio, positive when the results favor H1.
+		 */
+		public double getLogLikelihoodRatio(double elo0, double elo1){
+			double variance = getVariance();
+			if(variance == 0) return 0; //every game ended the same way, nothing to go on yet
+			double s0 = scoreFromElo(elo0);
+			double s1 = scoreFromElo(elo1);
+			return (s1 - s0) * (2 * getScore() - s0 - s1) * getGames() / (2 * variance);
+		}
+
+		void add(GameResult result){
+			if(result.points == 1){
+				++wins;
+			} else if(result.points == 0){
+				++losses;
+			} else {
+				++draws;
+			}
+			for(int e = 0; e < 2; ++e){
+				moves[e] += result.moves[e];
+				nanos[e] += result.nanos[e];
+				nodes[e] += result.nodes[e];
+			}
+		}
+	}
+
+	/**
+	 * Outcome of one game.
+	 */
+	private static class GameResult {
+		double points; //of the first engine
+		final long[] moves = new long[2];
+		final long[] nanos = new long[2];
+		final long[] nodes = new long[2];
+	}
+
+	/**
+	 * @param first Engine whose strength is being measured.
+	 * @param second Engine it is measured against.
+	 * @param elo0 Elo difference the test accepts as no improvement.
+	 * @param elo1 Elo difference the test accepts as an improvement.
+	 */
+	public Tournament(Engine first, Engine second, double elo0, double elo1){
+		this.first  = first;
+		this.second = second;
+		this.elo0   = elo0;
+		this.elo1   = elo1;
+		this.tables = ThreadLocal.withInitial(() -> new TranspositionTable[]{
+				TranspositionTable.fromSystemProperties(), TranspositionTable.fromSystemProperties()});
+	}
+
+	/**
+	 * Plays the match until the test decides it or every game has been played.
+	 *
+	 * @param openingPlies Length of the openings games start from.
+	 * @param maxGames Most games to play, at most two per opening.
+	 * @param threads Number of games played at once.
+	 * @return Results of the match.
+	 * @throws InterruptedException if interrupted while waiting for games.
+	 */
+	public Score play(int openingPlies, int maxGames, int threads) throws InterruptedException{
+		List<String> openings = generateOpenings(openingPlies);
+		Collections.shuffle(openings, new Random(OPENING_SEED)); //a match stopped early still sees every kind of opening
+		int games             = Math.min(maxGames, openings.size() * 2);
+		ExecutorService pool  = Executors.newFixedThreadPool(threads, (runnable) -> {
+			Thread thread = new Thread(runnable, "tournament");
+			thread.setDaemon(true);
+			return thread;
+		});
+		CompletionService<GameResult> results = new ExecutorCompletionService<GameResult>(pool);
+		for(int g = 0; g < games; ++g){
+			String opening     = openings.get(g / 2);
+			boolean firstIsRed = g % 2 == 0;
+			results.submit(() -> playGame(opening, firstIsRed));
+		}
+
+		Score score    = new Score();
+		double lower   = Math.log(BETA / (1 - ALPHA));
+		double upper   = Math.log((1 - BETA) / ALPHA);
+		int reportEach = Math.max(1, games / 10);
+		try{
+			for(int g = 0; g < games; ++g){
+				GameResult result = results.take().get();
+				if(result == null) continue; //abandoned after the test was decided
+				score.add(result);
+				double llr = score.getLogLikelihoodRatio(elo0, elo1);
+				if(score.getGames() % reportEach == 0){
+					System.out.println(String.format("  %d games: %+.1f +/- %.1f Elo, LLR %.2f", score.getGames(), score.getElo(), score.getEloError(), llr));
+				}
+				if(llr <= lower || llr >= upper){
+					break;
+				}
+			}
+		} catch(ExecutionException e){
+			throw new IllegalStateException("A game failed", e.getCause());
+		} finally {
+			finished = true;
+			pool.shutdownNow();
+		}
+		return score;
+	}
+
+	/**
+	 * Plays one game.
+	 *
+	 * @return The result, or null if the match ended first.
+	 */
+	private GameResult playGame(String opening, boolean firstIsRed){
+		TranspositionTable[] engineTables = tables.get();
+		for(TranspositionTable table : engineTables){
+			table.clear();
+		}
+		GameResult result = new GameResult();
+		Board board       = Board.fromMoves(opening);
+		while(Math.abs(board.getValue()) <= 1_000 && board.getNumOfMoves() < Board.NUM_ROWS * Board.NUM_COLUMNS){
+			if(finished) return null;
+			int e         = board.isRedTurn() == firstIsRed? 0 : 1;
+			Engine engine = e == 0? first : second;
+			ComputerPlayer player = new ComputerPlayer(board.isRedTurn());
+			player.setSearchMode(engine.mode);
+			player.setTranspositionTable(engineTables[e]);
+			player.setNodeLimit(engine.nodes);
+
+			long start = System.nanoTime();
+			int move   = searchMove(player, board, engine);
+			result.nanos[e] += System.nanoTime() - start;
+			result.nodes[e] += player.getNodes();
+			++result.moves[e];
+			board = new Board(board, move);
+		}
+
+		double redPoints = board.getValue() > 1_000? 1 : board.getValue() < -1_000? 0 : 0.5;
+		result.points    = firstIsRed? redPoints : 1 - redPoints;
+		return result;
+	}
+
+	private static int searchMove(ComputerPlayer player, Board board, Engine engine){
+		int depth = Math.min(engine.depth, Board.NUM_ROWS * Board.NUM_COLUMNS - board.getNumOfMoves());
+		return engine.moveMillis < 0? player.getEvenBetterMove(board, depth, null) : player.getMoveInTime(board, depth, engine.moveMillis, null);
+	}
+
+	/**
+	 * Lists every way the first moves of a game can be played, leaving out positions that are mirror images of one already listed.
+	 *
+	 * @param plies Number of moves in each opening.
+	 * @return The openings, as move strings for {@link Board#fromMoves(String)}.
+	 */
+	static List<String> generateOpenings(int plies){
+		List<String> openings = new ArrayList<String>();
+		HashSet<Long> seen    = new HashSet<Long>();
+		addOpenings("", new Board(), plies, openings, seen);
+		return openings;
+	}
+
+	private static void addOpenings(String moves, Board board, int plies, List<String> openings, HashSet<Long> seen){
+		if(Math.abs(board.getValue()) > 1_000) return;
+		if(moves.length() == plies){
+			long key = board.getPositionKey();
+			if(seen.add(Math.min(key, PositionCache.mirror(key)))){
+				openings.add(moves);
+			}
+			return;
+		}
+		for(int move : board.generateMoveList()){
+			addOpenings(moves + move, new Board(board, move), plies, openings, seen);
+		}
+	}
+
+	/**
+	 * @param score Points per game, between 0 and 1.
+	 * @return Elo difference that gives that score.
+	 */
+	public static double eloFromScore(double score){
+		double s = Math.max(1e-6, Math.min(1 - 1e-6, score));
+		return -400 * Math.log10(1 / s - 1);
+	}
+
+	/**
+	 * @param elo Elo difference.
+	 * @return Points per game expected from that difference.
+	 */
+	public static double scoreFromElo(double elo){
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	/**
+	 * Plays a match and prints the results.
+	 *
+	 * @param args Settings of the two engines as for {@link Engine#parse(String)}, then optionally the most games to play (default 1000), the
+	 * number of games played at once (default one per processor), the opening length (default 3) and the Elo bounds of the test (default 0 and 10).
+	 * @throws InterruptedException if interrupted while waiting for games.
+	 */
+	public static void main(String... args) throws InterruptedException{
+		if(args.length < 2){
+			System.err.println("Usage: Tournament <engine> <engine> [games] [threads] [opening plies] [elo0] [elo1]");
+			System.err.println("  engine: comma separated name=..., mode=FULL_WINDOW|ASPIRATION|MTDF, depth=n (default 6, or unlimited with nodes or movetime), nodes=n, movetime=ms");
+			return;
+		}
+		Engine first    = Engine.parse(args[0]);
+		Engine second   = Engine.parse(args[1]);
+		int games       = args.length > 2? Integer.parseInt(args[2]) : 1_000;
+		int threads     = args.length > 3? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		int plies       = args.length > 4? Integer.parseInt(args[4]) : 3;
+		double elo0     = args.length > 5? Double.parseDouble(args[5]) : 0;
+		double elo1     = args.length > 6? Double.parseDouble(args[6]) : 10;
+
+		System.out.println(first + " vs " + second + ", " + threads + " threads, SPRT elo0 " + elo0 + " elo1 " + elo1);
+		long startTime = System.currentTimeMillis();
+		Score score    = new Tournament(first, second, elo0, elo1).play(plies, games, threads);
+		double llr     = score.getLogLikelihoodRatio(elo0, elo1);
+		String verdict = llr >= Math.log((1 - BETA) / ALPHA)? "H1 accepted, " + first + " is stronger"
+				: llr <= Math.log(BETA / (1 - ALPHA))? "H0 accepted, " + first + " is not stronger"
+				: "no decision";
+
+		System.out.println(String.format("%d games in %.1f s: +%d =%d -%d, score %.3f", score.getGames(), (System.currentTimeMillis() - startTime) / 1e3,
+				score.wins, score.draws, score.losses, score.getScore()));
+		System.out.println(String.format("Elo %+.1f +/- %.1f (95%%), LLR %.2f: %s", score.getElo(), score.getEloError(), llr, verdict));
+		Engine[] engines = {first, second};
+		for(int e = 0; e < 2; ++e){
+			long moves = Math.max(1, score.moves[e]);
+			System.out.println(String.format("  %-20s %8.2f ms/move %,12d nodes/move", engines[e], score.nanos[e] / 1e6 / moves, score.nodes[e] / moves));
+		}
+	}
+}